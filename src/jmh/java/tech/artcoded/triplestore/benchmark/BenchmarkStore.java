@@ -0,0 +1,92 @@
+package tech.artcoded.triplestore.benchmark;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.apache.jena.query.Dataset;
+import org.springframework.beans.factory.config.YamlPropertiesFactoryBean;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.PropertiesPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import tech.artcoded.triplestore.tdb.MaterializedViews;
+import tech.artcoded.triplestore.tdb.PatchLog;
+import tech.artcoded.triplestore.tdb.QueryExecutionEngine;
+import tech.artcoded.triplestore.tdb.QueryResultCache;
+import tech.artcoded.triplestore.tdb.StoreWriter;
+import tech.artcoded.triplestore.tdb.TDBConfig;
+import tech.artcoded.triplestore.tdb.TDBService;
+import tech.artcoded.triplestore.tdb.TriplestoreMetrics;
+
+/**
+ * A TDB2 dataset in a temporary directory with the beans needed by
+ * TDBService, configured from application.yml. Camel, jms and the web layer
+ * are not started. The result cache is disabled so every invocation executes
+ * the query.
+ */
+public class BenchmarkStore implements AutoCloseable {
+  private final Path dir;
+  private final AnnotationConfigApplicationContext context;
+
+  private BenchmarkStore(Path dir, AnnotationConfigApplicationContext context) {
+    this.dir = dir;
+    this.context = context;
+  }
+
+  public static BenchmarkStore create() throws IOException {
+    return create(Map.of());
+  }
+
+  /**
+   * @param overrides application properties to override, e.g.
+   *                  triplestore.batchSize
+   */
+  public static BenchmarkStore create(Map<String, Object> overrides) throws IOException {
+    Path dir = Files.createTempDirectory("triplestore-benchmark");
+    var properties = new HashMap<String, Object>();
+    properties.put("triplestore.database.dir", dir.resolve("tdb2").toString());
+    properties.put("triplestore.replication.patchLog.dir", dir.resolve("patch-log").toString());
+    properties.put("triplestore.views.dir", dir.resolve("views").toString());
+    properties.put("triplestore.query.cache.enabled", false);
+    properties.putAll(overrides);
+
+    var yaml = new YamlPropertiesFactoryBean();
+    yaml.setResources(new ClassPathResource("application.yml"));
+
+    var context = new AnnotationConfigApplicationContext();
+    context.getBeanFactory().setConversionService(new ApplicationConversionService());
+    var propertySources = context.getEnvironment().getPropertySources();
+    propertySources.addFirst(new MapPropertySource("benchmark", properties));
+    propertySources.addLast(new PropertiesPropertySource("application", yaml.getObject()));
+    context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+    context.register(TDBConfig.class, StoreWriter.class, TriplestoreMetrics.class, QueryResultCache.class, QueryExecutionEngine.class,
+        PatchLog.class, MaterializedViews.class, TDBService.class);
+    context.refresh();
+    return new BenchmarkStore(dir, context);
+  }
+
+  public TDBService tdbService() {
+    return context.getBean(TDBService.class);
+  }
+
+  public Dataset dataset() {
+    return context.getBean(Dataset.class);
+  }
+
+  @Override
+  public void close() throws IOException {
+    context.close();
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+}
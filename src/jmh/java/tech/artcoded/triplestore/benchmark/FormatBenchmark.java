@@ -0,0 +1,100 @@
+package tech.artcoded.triplestore.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.ResultSetMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What the other side of a response or a migration file pays: parsing of
+ * the same results and graph in the text and binary formats. The size of
+ * each serialization is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatBenchmark {
+  public enum Format {
+    RESULTS_JSON(ResultSetLang.RS_JSON),
+    RESULTS_XML(ResultSetLang.RS_XML),
+    RESULTS_THRIFT(ResultSetLang.RS_Thrift),
+    RESULTS_PROTOBUF(ResultSetLang.RS_Protobuf),
+    GRAPH_TURTLE(Lang.TURTLE),
+    GRAPH_NTRIPLES(Lang.NTRIPLES),
+    GRAPH_THRIFT(Lang.RDFTHRIFT),
+    GRAPH_PROTOBUF(Lang.RDFPROTO);
+
+    private final Lang lang;
+
+    Format(Lang lang) {
+      this.lang = lang;
+    }
+
+    boolean results() {
+      return ResultSetLang.isRegistered(lang);
+    }
+  }
+
+  @Param({ "100000" })
+  private int triples;
+  @Param({ "42" })
+  private long seed;
+  @Param
+  private Format format;
+
+  private byte[] serialized;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int resources = triples / SyntheticData.TRIPLES_PER_RESOURCE;
+    Graph graph = GraphFactory.createDefaultGraph();
+    SyntheticData.triples(seed, 0, resources, resources).forEachRemaining(graph::add);
+    var out = new ByteArrayOutputStream();
+    if (format.results()) {
+      try (var execution = QueryExecutionFactory.create("SELECT * WHERE { ?s ?p ?o }",
+          ModelFactory.createModelForGraph(graph))) {
+        ResultSetFormatter.output(out, execution.execSelect(), format.lang);
+      }
+    } else {
+      RDFDataMgr.write(out, graph, format.lang);
+    }
+    serialized = out.toByteArray();
+    System.out.printf("%n%s: %d triples, %d bytes%n", format, graph.size(), serialized.length);
+  }
+
+  @Benchmark
+  public long parse() {
+    var in = new ByteArrayInputStream(serialized);
+    if (format.results()) {
+      return ResultSetFormatter.consume(ResultSetMgr.read(in, format.lang));
+    }
+    var counter = StreamRDFLib.count();
+    RDFParser.source(in).lang(format.lang).parse(counter);
+    return counter.count();
+  }
+}
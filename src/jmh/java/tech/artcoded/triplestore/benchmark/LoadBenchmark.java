@@ -0,0 +1,56 @@
+package tech.artcoded.triplestore.benchmark;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TDBService.batchLoadData into an empty store, one store per iteration so
+ * every load starts from the same state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+  @Param({ "100", "1000", "10000" })
+  private int batchSize;
+  @Param({ "50000" })
+  private int triples;
+  @Param({ "42" })
+  private long seed;
+
+  private BenchmarkStore store;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException {
+    store = BenchmarkStore.create(Map.of("triplestore.batchSize", batchSize));
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    store.close();
+  }
+
+  @Benchmark
+  public long batchLoadData() {
+    int resources = triples / SyntheticData.TRIPLES_PER_RESOURCE;
+    return store.tdbService().batchLoadData(SyntheticData.graph(0),
+        SyntheticData.triples(seed, 0, resources, resources));
+  }
+}
@@ -0,0 +1,85 @@
+package tech.artcoded.triplestore.benchmark;
+
+import static tech.artcoded.triplestore.benchmark.SyntheticData.NS;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.query.QueryType;
+import org.apache.jena.riot.Lang;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.artcoded.triplestore.sparql.QueryParserUtil;
+import tech.artcoded.triplestore.sparql.QueryParserUtil.QueryTuple;
+import tech.artcoded.triplestore.tdb.ContentNegotiation;
+
+/**
+ * Request handling before execution: parsing of the operation and
+ * negotiation of the response format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+  private static final String SELECT = """
+      PREFIX bench: <%s>
+      PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>
+      SELECT ?s ?label WHERE {
+        GRAPH ?g { ?s rdf:type bench:Thing ; bench:label ?label OPTIONAL { ?s bench:knows ?o } }
+        FILTER(lang(?label) = "en")
+      } ORDER BY ?label LIMIT 100
+      """.formatted(NS);
+  private static final String UPDATE = """
+      PREFIX bench: <%s>
+      DELETE { GRAPH ?g { ?s bench:value ?value } }
+      INSERT { GRAPH ?g { ?s bench:value ?next } }
+      WHERE { GRAPH ?g { ?s bench:value ?value } BIND(?value + 1 AS ?next) }
+      """.formatted(NS);
+
+  @State(Scope.Benchmark)
+  public static class Parsing {
+    /**
+     * when false, every invocation parses a distinct text, so the parsed
+     * operation cache never hits
+     */
+    @Param({ "true", "false" })
+    private boolean cached;
+    private long counter;
+
+    String text(String query) {
+      return cached ? query : query + "# " + counter++;
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Negotiation {
+    @Param({ "application/sparql-results+json",
+        "text/csv;q=0.5, application/sparql-results+xml;q=0.9, */*;q=0.1",
+        "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8" })
+    private String accept;
+  }
+
+  @Benchmark
+  public Optional<QueryTuple> parseSelect(Parsing parsing) {
+    return QueryParserUtil.parseOperation(parsing.text(SELECT), false);
+  }
+
+  @Benchmark
+  public Optional<QueryTuple> parseUpdate(Parsing parsing) {
+    return QueryParserUtil.parseOperation(parsing.text(UPDATE), false);
+  }
+
+  @Benchmark
+  public Lang negotiate(Negotiation negotiation) {
+    return ContentNegotiation.negotiate(negotiation.accept, QueryType.SELECT);
+  }
+}
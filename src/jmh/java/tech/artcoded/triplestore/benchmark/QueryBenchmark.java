@@ -0,0 +1,111 @@
+package tech.artcoded.triplestore.benchmark;
+
+import static tech.artcoded.triplestore.benchmark.SyntheticData.NS;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.artcoded.triplestore.tdb.TDBService;
+
+/**
+ * TDBService.executeQuery for each query type and result format, including
+ * the serialization of the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+  public enum Scenario {
+    SELECT_JSON(Queries.SELECT, "application/sparql-results+json"),
+    SELECT_XML(Queries.SELECT, "application/sparql-results+xml"),
+    SELECT_CSV(Queries.SELECT, "text/csv"),
+    SELECT_THRIFT(Queries.SELECT, "application/sparql-results+thrift"),
+    SELECT_PROTOBUF(Queries.SELECT, "application/sparql-results+protobuf"),
+    ASK_JSON(Queries.ASK, "application/sparql-results+json"),
+    ASK_XML(Queries.ASK, "application/sparql-results+xml"),
+    CONSTRUCT_TURTLE(Queries.CONSTRUCT, "text/turtle"),
+    CONSTRUCT_NTRIPLES(Queries.CONSTRUCT, "application/n-triples"),
+    CONSTRUCT_JSONLD(Queries.CONSTRUCT, "application/ld+json"),
+    CONSTRUCT_RDFXML(Queries.CONSTRUCT, "application/rdf+xml"),
+    CONSTRUCT_THRIFT(Queries.CONSTRUCT, "application/rdf+thrift"),
+    CONSTRUCT_PROTOBUF(Queries.CONSTRUCT, "application/rdf+protobuf"),
+    DESCRIBE_TURTLE(Queries.DESCRIBE, "text/turtle"),
+    DESCRIBE_NTRIPLES(Queries.DESCRIBE, "application/n-triples");
+
+    private final String query;
+    private final String accept;
+
+    Scenario(String query, String accept) {
+      this.query = query;
+      this.accept = accept;
+    }
+  }
+
+  interface Queries {
+    String SELECT = """
+        SELECT ?s ?label ?value WHERE {
+          GRAPH ?g { ?s a <%sclass/1> ; <%slabel> ?label ; <%svalue> ?value }
+        } ORDER BY DESC(?value) LIMIT 1000
+        """.formatted(NS, NS, NS);
+    String ASK = """
+        ASK { GRAPH ?g { ?s <%sknows> ?o . ?o <%sknows> ?s . ?s <%svalue> ?v FILTER(?v > 999000) } }
+        """.formatted(NS, NS, NS);
+    String CONSTRUCT = """
+        CONSTRUCT { ?s <%slabel> ?label ; <%sknows> ?o } WHERE {
+          GRAPH ?g { ?s a <%sclass/3> ; <%slabel> ?label ; <%sknows> ?o }
+        }
+        """.formatted(NS, NS, NS, NS, NS);
+    String DESCRIBE = """
+        DESCRIBE ?s WHERE { ?s <%sknows> <%sresource/1> }
+        """.formatted(NS, NS);
+  }
+
+  @Param({ "100000" })
+  private int triples;
+  @Param({ "4" })
+  private int graphs;
+  @Param({ "42" })
+  private long seed;
+  @Param
+  private Scenario scenario;
+
+  private BenchmarkStore store;
+  private TDBService tdbService;
+  private Query query;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    store = BenchmarkStore.create();
+    tdbService = store.tdbService();
+    SyntheticData.load(tdbService, seed, triples, graphs);
+    query = QueryFactory.create(scenario.query);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    store.close();
+  }
+
+  @Benchmark
+  public void executeQuery() throws IOException {
+    tdbService.executeQuery(query, scenario.accept, false).writeTo(OutputStream.nullOutputStream());
+  }
+}
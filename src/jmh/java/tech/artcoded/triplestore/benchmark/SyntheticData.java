@@ -0,0 +1,94 @@
+package tech.artcoded.triplestore.benchmark;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.vocabulary.RDF;
+import tech.artcoded.triplestore.tdb.TDBService;
+
+/**
+ * Seeded generator of resources spread over a few graphs. Each resource has
+ * a type, a label, an integer value and links to other resources (about 5
+ * triples per resource), so the same seed always gives the same dataset.
+ */
+public final class SyntheticData {
+  public static final String NS = "http://bench.artcoded.tech/";
+  public static final int CLASSES = 10;
+  public static final int TRIPLES_PER_RESOURCE = 5;
+
+  private static final Node LABEL = NodeFactory.createURI(NS + "label");
+  private static final Node VALUE = NodeFactory.createURI(NS + "value");
+  private static final Node KNOWS = NodeFactory.createURI(NS + "knows");
+
+  private SyntheticData() {
+  }
+
+  public static String graph(int index) {
+    return NS + "graph/" + index;
+  }
+
+  public static String resource(long index) {
+    return NS + "resource/" + index;
+  }
+
+  public static String type(int index) {
+    return NS + "class/" + index;
+  }
+
+  /**
+   * Loads about triples triples, evenly spread over graphs graphs.
+   */
+  public static void load(TDBService tdbService, long seed, int triples, int graphs) {
+    int resources = Math.max(triples / TRIPLES_PER_RESOURCE, 1);
+    int perGraph = Math.max(resources / graphs, 1);
+    for (int g = 0; g < graphs; g++) {
+      tdbService.batchLoadData(graph(g), triples(seed + g, (long) g * perGraph, perGraph, resources));
+    }
+  }
+
+  /**
+   * @param first     index of the first generated resource
+   * @param count     number of generated resources
+   * @param resources total number of resources, links point anywhere in it
+   */
+  public static Iterator<Triple> triples(long seed, long first, int count, int resources) {
+    var random = new SplittableRandom(seed);
+    return new Iterator<>() {
+      private long next = first;
+      private final List<Triple> pending = new ArrayList<>(TRIPLES_PER_RESOURCE);
+
+      @Override
+      public boolean hasNext() {
+        return !pending.isEmpty() || next < first + count;
+      }
+
+      @Override
+      public Triple next() {
+        if (pending.isEmpty()) {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          generate(next++);
+        }
+        return pending.removeFirst();
+      }
+
+      private void generate(long index) {
+        Node subject = NodeFactory.createURI(resource(index));
+        pending.add(Triple.create(subject, RDF.type.asNode(),
+            NodeFactory.createURI(type(random.nextInt(CLASSES)))));
+        pending.add(Triple.create(subject, LABEL, NodeFactory.createLiteralLang("resource " + index, "en")));
+        pending.add(Triple.create(subject, VALUE,
+            NodeFactory.createLiteralDT(Integer.toString(random.nextInt(1_000_000)), XSDDatatype.XSDinteger)));
+        pending.add(Triple.create(subject, KNOWS, NodeFactory.createURI(resource(random.nextInt(resources)))));
+        pending.add(Triple.create(subject, KNOWS, NodeFactory.createURI(resource(random.nextInt(resources)))));
+      }
+    };
+  }
+}
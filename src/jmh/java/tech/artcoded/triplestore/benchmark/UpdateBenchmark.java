@@ -0,0 +1,84 @@
+package tech.artcoded.triplestore.benchmark;
+
+import static tech.artcoded.triplestore.benchmark.SyntheticData.NS;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.rdfpatch.changes.PatchSummary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.artcoded.triplestore.tdb.TDBService;
+
+/**
+ * TDBService.executeUpdateQuery, one write transaction per invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateBenchmark {
+  private static final String INSERT_DATA = """
+      INSERT DATA { GRAPH <%s> { <%sinserted/%%d> <%slabel> "inserted %%d"@en } }
+      """.formatted(SyntheticData.graph(0), NS, NS);
+  private static final String DELETE_INSERT_WHERE = """
+      DELETE { GRAPH ?g { ?s <%svalue> ?value } }
+      INSERT { GRAPH ?g { ?s <%svalue> ?next } }
+      WHERE {
+        GRAPH ?g { ?s <%svalue> ?value }
+        VALUES ?s { <%%s> }
+        BIND(?value + 1 AS ?next)
+      }
+      """.formatted(NS, NS, NS);
+
+  @Param({ "100000" })
+  private int triples;
+  @Param({ "4" })
+  private int graphs;
+  @Param({ "42" })
+  private long seed;
+
+  private BenchmarkStore store;
+  private TDBService tdbService;
+  private SplittableRandom random;
+  private long inserted;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    store = BenchmarkStore.create();
+    tdbService = store.tdbService();
+    SyntheticData.load(tdbService, seed, triples, graphs);
+    random = new SplittableRandom(seed);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    store.close();
+  }
+
+  @Benchmark
+  public PatchSummary insertData() {
+    long index = inserted++;
+    return tdbService.executeUpdateQuery(INSERT_DATA.formatted(index, index));
+  }
+
+  @Benchmark
+  public PatchSummary deleteInsertWhere() {
+    int resources = triples / SyntheticData.TRIPLES_PER_RESOURCE;
+    return tdbService.executeUpdateQuery(
+        DELETE_INSERT_WHERE.formatted(SyntheticData.resource(random.nextInt(resources))));
+  }
+}
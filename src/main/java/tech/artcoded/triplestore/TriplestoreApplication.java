@@ -4,12 +4,14 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import tech.artcoded.triplestore.sparql.SparqlSecurityConfig;
 
 @SpringBootApplication
 @EnableConfigurationProperties({ SparqlSecurityConfig.class })
 @EnableCaching
+@EnableScheduling
 public class TriplestoreApplication {
 
   public static void main(String[] args) {
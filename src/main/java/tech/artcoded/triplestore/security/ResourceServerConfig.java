@@ -28,6 +28,8 @@ public class ResourceServerConfig {
         .authorizeHttpRequests(a -> a.requestMatchers(mvc.matcher("/public/**")).permitAll()
             .requestMatchers(mvc.matcher("/api/actuator/prometheus/**"))
             .hasAnyRole("PROMETHEUS")
+            .requestMatchers(mvc.matcher("/admin/**"))
+            .hasAnyRole("ADMIN")
             .anyRequest().authenticated())
 
         .httpBasic(auth -> auth.realmName("ArtcodedTriplestore"))
@@ -0,0 +1,29 @@
+package tech.artcoded.triplestore.sparql;
+
+import java.util.List;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.Op1;
+import org.apache.jena.sparql.algebra.op.Op2;
+import org.apache.jena.sparql.algebra.op.OpN;
+
+public interface AlgebraUtil {
+
+  /**
+   * @return the algebra after the optimizer, in quad form as TDB2 executes it
+   */
+  static Op optimized(Query query) {
+    return Algebra.toQuadForm(Algebra.optimize(Algebra.compile(query)));
+  }
+
+  static List<Op> children(Op op) {
+    return switch (op) {
+      case Op1 op1 -> List.of(op1.getSubOp());
+      case Op2 op2 -> List.of(op2.getLeft(), op2.getRight());
+      case OpN opN -> opN.getElements();
+      default -> List.of();
+    };
+  }
+}
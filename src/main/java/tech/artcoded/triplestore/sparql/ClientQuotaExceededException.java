@@ -0,0 +1,13 @@
+package tech.artcoded.triplestore.sparql;
+
+import tech.artcoded.triplestore.tdb.QueryRejectedException;
+
+/**
+ * thrown when a client already uses all of its query slots, the endpoint
+ * answers 429.
+ */
+public class ClientQuotaExceededException extends QueryRejectedException {
+  public ClientQuotaExceededException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,239 @@
+package tech.artcoded.triplestore.sparql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.CountingOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.jena.atlas.web.ContentType;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import tech.artcoded.triplestore.tdb.ContentNegotiation;
+import tech.artcoded.triplestore.tdb.QueryRejectedException;
+import tech.artcoded.triplestore.tdb.ReplicaFollower;
+import tech.artcoded.triplestore.tdb.TDBService;
+import tech.artcoded.triplestore.tdb.TriplestoreMetrics;
+import tech.artcoded.triplestore.tdb.UpdateResult;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.http.HttpHeaders.ACCEPT;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpHeaders.RETRY_AFTER;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+
+/**
+ * SPARQL 1.1 Graph Store HTTP Protocol, indirect graph identification:
+ * ?graph=uri or ?default. Uploads are staged before the writer is taken,
+ * downloads are written while the graph is read.
+ */
+@RestController
+@Slf4j
+@RequestMapping("/graph-store")
+public class GraphStoreEndpoint {
+  private final TDBService tdbService;
+  private final SparqlEndpoint sparqlEndpoint;
+  private final ReplicaFollower replicaFollower;
+  private final TriplestoreMetrics metrics;
+  private final ObjectMapper objectMapper;
+
+  @Value("${triplestore.update.sync.maxWaitMs}")
+  private long maxWaitMs;
+
+  public GraphStoreEndpoint(TDBService tdbService, SparqlEndpoint sparqlEndpoint, ReplicaFollower replicaFollower,
+      TriplestoreMetrics metrics, ObjectMapper objectMapper) {
+    this.tdbService = tdbService;
+    this.sparqlEndpoint = sparqlEndpoint;
+    this.replicaFollower = replicaFollower;
+    this.metrics = metrics;
+    this.objectMapper = objectMapper;
+  }
+
+  @GetMapping
+  public ResponseEntity<StreamingResponseBody> get(
+      @RequestParam(value = "graph", required = false) String graph,
+      @RequestParam(value = "default", required = false) String defaultGraph,
+      HttpServletRequest request) {
+    String graphUri = graphUri(graph, defaultGraph);
+    if (graphUri == null) {
+      return error(HttpStatus.BAD_REQUEST, "either graph or default is required");
+    }
+    if (!tdbService.containsGraph(graphUri)) {
+      return error(HttpStatus.NOT_FOUND, "graph <%s> not found".formatted(graphUri));
+    }
+    var result = tdbService.exportGraph(graphUri, ContentNegotiation.negotiateGraphStream(request.getHeader(ACCEPT)));
+    String endpoint = request.getRequestURI();
+    return ResponseEntity.status(200).header(CONTENT_TYPE, result.getContentType())
+        .body(out -> {
+          long start = System.nanoTime();
+          var counting = new CountingOutputStream(out);
+          try {
+            result.writeTo(counting);
+          } finally {
+            metrics.recordResponse(endpoint, "EXPORT", System.nanoTime() - start, counting.getCount());
+          }
+        });
+  }
+
+  /**
+   * replaces the graph with the request body
+   */
+  @PutMapping
+  public ResponseEntity<StreamingResponseBody> put(
+      @RequestParam(value = "graph", required = false) String graph,
+      @RequestParam(value = "default", required = false) String defaultGraph,
+      HttpServletRequest request) {
+    return write(graph, defaultGraph, request,
+        (graphUri, parser) -> tdbService.replaceGraph(graphUri, parser, maxWait()));
+  }
+
+  /**
+   * merges the request body into the graph
+   */
+  @PostMapping
+  public ResponseEntity<StreamingResponseBody> post(
+      @RequestParam(value = "graph", required = false) String graph,
+      @RequestParam(value = "default", required = false) String defaultGraph,
+      HttpServletRequest request) {
+    return write(graph, defaultGraph, request,
+        (graphUri, parser) -> tdbService.mergeGraph(graphUri, parser, maxWait()));
+  }
+
+  @DeleteMapping
+  public ResponseEntity<StreamingResponseBody> delete(
+      @RequestParam(value = "graph", required = false) String graph,
+      @RequestParam(value = "default", required = false) String defaultGraph) {
+    String graphUri = graphUri(graph, defaultGraph);
+    var denied = checkWrite(graphUri);
+    if (denied != null) {
+      return denied;
+    }
+    if (!tdbService.containsGraph(graphUri)) {
+      return error(HttpStatus.NOT_FOUND, "graph <%s> not found".formatted(graphUri));
+    }
+    try {
+      return json(HttpStatus.OK, tdbService.clearGraph(graphUri, maxWait()));
+    } catch (QueryRejectedException exc) {
+      return busy(exc);
+    }
+  }
+
+  interface GraphWrite {
+    UpdateResult apply(String graphUri, Consumer<StreamRDF> parser);
+  }
+
+  ResponseEntity<StreamingResponseBody> write(String graph, String defaultGraph, HttpServletRequest request,
+      GraphWrite graphWrite) {
+    String graphUri = graphUri(graph, defaultGraph);
+    var denied = checkWrite(graphUri);
+    if (denied != null) {
+      return denied;
+    }
+    Lang lang = langOf(request.getContentType());
+    if (lang == null) {
+      return error(HttpStatus.UNSUPPORTED_MEDIA_TYPE,
+          "unsupported content type %s, send an rdf triples syntax".formatted(request.getContentType()));
+    }
+    try (InputStream body = body(request)) {
+      var result = graphWrite.apply(graphUri, sink -> RDFParser.source(body).lang(lang).parse(sink));
+      log.info("graph store {} <{}>: {} added, {} deleted", request.getMethod(), graphUri, result.added(),
+          result.deleted());
+      return json(result.created() ? HttpStatus.CREATED : HttpStatus.OK, result);
+    } catch (RiotException exc) {
+      log.warn("graph store {} <{}>: invalid body: {}", request.getMethod(), graphUri, exc.getMessage());
+      return error(HttpStatus.BAD_REQUEST, exc.getMessage());
+    } catch (QueryRejectedException exc) {
+      return busy(exc);
+    } catch (Exception exc) {
+      log.error("graph store {} <{}> failed", request.getMethod(), graphUri, exc);
+      return error(HttpStatus.INTERNAL_SERVER_ERROR, exc.getMessage());
+    }
+  }
+
+  /**
+   * @return the response when the write is not allowed, null otherwise
+   */
+  ResponseEntity<StreamingResponseBody> checkWrite(String graphUri) {
+    if (graphUri == null) {
+      return error(HttpStatus.BAD_REQUEST, "either graph or default is required");
+    }
+    if (!sparqlEndpoint.canUpdate()) {
+      return error(HttpStatus.FORBIDDEN, "You cannot perform this action");
+    }
+    if (replicaFollower.isFollower()) {
+      return error(HttpStatus.FORBIDDEN, "This instance is a read-only replica, send updates to the leader");
+    }
+    return null;
+  }
+
+  static String graphUri(String graph, String defaultGraph) {
+    if (graph != null && !graph.isBlank()) {
+      return graph;
+    }
+    return defaultGraph != null ? Quad.defaultGraphIRI.getURI() : null;
+  }
+
+  /**
+   * @return the triples language of the content type, null otherwise. Quad
+   *         languages (TriG, N-Quads) are refused, their graphs would be
+   *         merged into the target graph.
+   */
+  static Lang langOf(String contentType) {
+    if (contentType == null || contentType.isBlank()) {
+      return null;
+    }
+    Lang lang = RDFLanguages.contentTypeToLang(ContentType.create(contentType).getContentTypeStr());
+    return lang != null && RDFLanguages.isTriples(lang) ? lang : null;
+  }
+
+  static InputStream body(HttpServletRequest request) throws IOException {
+    InputStream body = request.getInputStream();
+    return "gzip".equalsIgnoreCase(request.getHeader(CONTENT_ENCODING)) ? new GZIPInputStream(body) : body;
+  }
+
+  ResponseEntity<StreamingResponseBody> json(HttpStatus status, UpdateResult result) {
+    return ResponseEntity.status(status).header(CONTENT_TYPE, APPLICATION_JSON_VALUE)
+        .body(out -> out.write(objectMapper.writeValueAsBytes(result)));
+  }
+
+  /**
+   * the writer is held by another write, e.g. a compaction
+   */
+  static ResponseEntity<StreamingResponseBody> busy(QueryRejectedException exc) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(RETRY_AFTER, "1")
+        .body(out -> IOUtils.write("{error: '%s'}".formatted(exc.getMessage()), out, UTF_8));
+  }
+
+  Duration maxWait() {
+    return Duration.ofMillis(maxWaitMs);
+  }
+
+  static ResponseEntity<StreamingResponseBody> error(HttpStatus status, String message) {
+    return ResponseEntity.status(status)
+        .body(out -> IOUtils.write("{error: '%s'}".formatted(message), out, UTF_8));
+  }
+}
@@ -0,0 +1,228 @@
+package tech.artcoded.triplestore.sparql;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpLeftJoin;
+import org.apache.jena.sparql.algebra.op.OpPath;
+import org.apache.jena.sparql.algebra.op.OpSlice;
+import org.apache.jena.sparql.algebra.op.OpUnion;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tech.artcoded.triplestore.tdb.QueryRejectedException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cost-aware admission in front of query execution. Each query costs a
+ * number of slots estimated from its algebra. A client (jwt subject or
+ * remote address) can hold at most perClientSlots at once, and all clients
+ * share totalSlots, so a single heavy user cannot starve interactive traffic.
+ * Slots are handed out in arrival order, so a heavy query is not overtaken
+ * forever by cheap ones.
+ */
+@Component
+@Slf4j
+public class QueryAdmissionController {
+  private final boolean enabled;
+  private final int totalSlots;
+  private final int perClientSlots;
+  private final int maxWeight;
+  private final int costPerSlot;
+  private final long maxWaitMs;
+
+  private final Semaphore globalSlots;
+  // kept while a query of the client holds or waits for slots
+  private final ConcurrentHashMap<String, ClientSlots> clientSlots = new ConcurrentHashMap<>();
+  private final DistributionSummary weights;
+  private final Counter rejected;
+
+  public QueryAdmissionController(@Value("${triplestore.query.admission.enabled}") boolean enabled,
+      @Value("${triplestore.query.admission.totalSlots}") int totalSlots,
+      @Value("${triplestore.query.admission.perClientSlots}") int perClientSlots,
+      @Value("${triplestore.query.admission.maxWeight}") int maxWeight,
+      @Value("${triplestore.query.admission.costPerSlot}") int costPerSlot,
+      @Value("${triplestore.query.admission.maxWaitMs}") long maxWaitMs,
+      MeterRegistry meterRegistry) {
+    this.enabled = enabled;
+    this.totalSlots = totalSlots;
+    this.perClientSlots = perClientSlots;
+    this.maxWeight = Math.min(maxWeight, Math.min(totalSlots, perClientSlots));
+    this.costPerSlot = Math.max(costPerSlot, 1);
+    this.maxWaitMs = maxWaitMs;
+    this.globalSlots = new Semaphore(totalSlots, true);
+    Gauge.builder("triplestore.query.admission.slots.used", globalSlots, s -> this.totalSlots - s.availablePermits())
+        .description("query slots in use")
+        .register(meterRegistry);
+    this.weights = DistributionSummary.builder("triplestore.query.admission.weight")
+        .description("slots requested per query")
+        .register(meterRegistry);
+    this.rejected = Counter.builder("triplestore.query.admission.rejected")
+        .description("queries that could not get their slots in time")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Waits at most maxWaitMs for the slots of the query, on the request
+   * thread: keep it short.
+   *
+   * @return a permit to close once the query is done
+   * @throws ClientQuotaExceededException when the client already uses all of
+   *                                      its slots
+   * @throws QueryRejectedException       when the store is saturated
+   */
+  public Permit admit(Query query, String client) {
+    return admit(query, compile(query), client);
+  }
+
+  /**
+   * @param op the algebra of the query, compiled once by the caller
+   */
+  public Permit admit(Query query, Op op, String client) {
+    if (!enabled) {
+      return new Permit(null, null, 0);
+    }
+    int weight = weight(query, op);
+    weights.record(weight);
+    var slots = pin(client);
+    if (!tryAcquire(slots.semaphore(), weight)) {
+      unpin(client);
+      rejected.increment();
+      throw new ClientQuotaExceededException("too many queries in progress for '%s', try again later".formatted(client));
+    }
+    if (!tryAcquire(globalSlots, weight)) {
+      slots.semaphore().release(weight);
+      unpin(client);
+      rejected.increment();
+      throw new QueryRejectedException("too many queries in progress, try again later");
+    }
+    log.debug("admitted query of weight {} for '{}'", weight, client);
+    return new Permit(client, slots, weight);
+  }
+
+  /**
+   * the slots of a client cannot be dropped while one of its queries holds
+   * them, a new semaphore would hand them out again
+   */
+  private ClientSlots pin(String client) {
+    return clientSlots.compute(client, (_, slots) -> {
+      var pinned = slots != null ? slots : new ClientSlots(new Semaphore(perClientSlots, true));
+      pinned.users++;
+      return pinned;
+    });
+  }
+
+  private void unpin(String client) {
+    clientSlots.computeIfPresent(client, (_, slots) -> --slots.users == 0 ? null : slots);
+  }
+
+  int clients() {
+    return clientSlots.size();
+  }
+
+  private static final class ClientSlots {
+    private final Semaphore semaphore;
+    // guarded by the map entry
+    private int users;
+
+    ClientSlots(Semaphore semaphore) {
+      this.semaphore = semaphore;
+    }
+
+    Semaphore semaphore() {
+      return semaphore;
+    }
+  }
+
+  private boolean tryAcquire(Semaphore semaphore, int permits) {
+    try {
+      return semaphore.tryAcquire(permits, maxWaitMs, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * @return the number of slots for the query, between 1 and maxWeight
+   */
+  int weight(Query query, Op op) {
+    if (op == null) {
+      return maxWeight;
+    }
+    var cost = new Cost();
+    visit(op, 0, cost);
+    double total = cost.triplePatterns + cost.paths * 3 + cost.nesting;
+    boolean limited = op instanceof OpSlice slice && slice.getLength() != Query.NOLIMIT;
+    if (!limited && !query.isAskType()) {
+      total *= 2;
+    }
+    int weight = (int) Math.ceil(total / costPerSlot);
+    return Math.clamp(weight, 1, maxWeight);
+  }
+
+  private static Op compile(Query query) {
+    try {
+      return Algebra.compile(query);
+    } catch (Exception exc) {
+      return null;
+    }
+  }
+
+  private static class Cost {
+    int triplePatterns;
+    int paths;
+    int nesting;
+  }
+
+  /**
+   * OPTIONAL and UNION cost more the deeper they are nested.
+   */
+  private void visit(Op op, int depth, Cost cost) {
+    int childDepth = depth;
+    switch (op) {
+      case OpBGP bgp -> cost.triplePatterns += bgp.getPattern().size();
+      case OpPath _ -> cost.paths++;
+      case OpLeftJoin _, OpUnion _ -> {
+        childDepth++;
+        cost.nesting += childDepth;
+      }
+      default -> {
+      }
+    }
+    for (Op child : AlgebraUtil.children(op)) {
+      visit(child, childDepth, cost);
+    }
+  }
+
+  public class Permit implements AutoCloseable {
+    private final String client;
+    private final ClientSlots slots;
+    private final int weight;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    Permit(String client, ClientSlots slots, int weight) {
+      this.client = client;
+      this.slots = slots;
+      this.weight = weight;
+    }
+
+    @Override
+    public void close() {
+      if (slots != null && released.compareAndSet(false, true)) {
+        globalSlots.release(weight);
+        slots.semaphore().release(weight);
+        unpin(client);
+      }
+    }
+  }
+}
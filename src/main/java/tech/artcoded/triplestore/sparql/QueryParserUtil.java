@@ -1,20 +1,49 @@
 package tech.artcoded.triplestore.sparql;
 
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryException;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.update.UpdateFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 import static java.util.Optional.*;
 
 public interface QueryParserUtil {
   Logger LOGGER = LoggerFactory.getLogger(QueryParserUtil.class);
 
+  int MAX_CACHED_QUERY_LENGTH = 64 * 1024;
+  // heap taken by a parsed operation per char of its text, measured on typical queries and updates
+  int PARSED_BYTES_PER_CHAR = 40;
+
+  /**
+   * Parsed operations keyed by their raw text, weighted by their estimated
+   * heap size. A parsed operation is not thread-safe: a query is cloned for
+   * each caller, an update is taken out of the cache by the one that applies
+   * it (parsed by the endpoint, found again when it comes back from the jms
+   * queue).
+   */
+  Cache<String, QueryTuple> PARSED_CACHE = Caffeine.newBuilder()
+    .expireAfterAccess(Duration.ofMinutes(5))
+    .maximumWeight(32 * 1024 * 1024)
+    .<String, QueryTuple>weigher((query, _) -> query.length() * PARSED_BYTES_PER_CHAR)
+    .build();
+
+  Set<String> PROLOGUE_KEYWORDS = Set.of("PREFIX", "BASE");
+  Set<String> READ_KEYWORDS = Set.of("SELECT", "ASK", "CONSTRUCT", "DESCRIBE");
+  Set<String> UPDATE_KEYWORDS = Set.of("INSERT", "DELETE", "LOAD", "CLEAR", "CREATE", "DROP", "COPY", "MOVE", "ADD",
+    "WITH");
+
   enum QueryType {UPDATE, READ}
 
   record QueryTuple(Object query, QueryType type) {
@@ -23,14 +52,70 @@ public interface QueryParserUtil {
   static Optional<QueryTuple> parseOperation(String query, boolean forceRead) {
 
     return ofNullable(query).filter(StringUtils::isNotEmpty)
-      .flatMap(q -> parseQuery(q, forceRead).or(() -> parseUpdate(q)));
+      .flatMap(q -> switch (classify(q).orElse(null)) {
+        case READ -> parseQuery(q, forceRead);
+        case UPDATE -> {
+          if (forceRead) {
+            throw new RuntimeException("update operations are not allowed on this endpoint");
+          }
+          yield parseUpdate(q);
+        }
+        case null -> parseQuery(q, forceRead).or(() -> parseUpdate(q));
+      });
+  }
+
+  /**
+   * Tells a query from an update by its first keyword after the prologue
+   * (comments, PREFIX and BASE declarations), without parsing it.
+   *
+   * @return empty when the operation could not be classified
+   */
+  static Optional<QueryType> classify(String query) {
+    int i = 0;
+    int length = query.length();
+    while (i < length) {
+      char c = query.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '#') {
+        while (i < length && query.charAt(i) != '\n') {
+          i++;
+        }
+      } else if (Character.isLetter(c)) {
+        int start = i;
+        while (i < length && Character.isLetter(query.charAt(i))) {
+          i++;
+        }
+        String keyword = query.substring(start, i).toUpperCase(Locale.ROOT);
+        if (READ_KEYWORDS.contains(keyword)) {
+          return of(QueryType.READ);
+        }
+        if (UPDATE_KEYWORDS.contains(keyword)) {
+          return of(QueryType.UPDATE);
+        }
+        if (!PROLOGUE_KEYWORDS.contains(keyword)) {
+          return empty();
+        }
+        // skip the declaration up to the end of its iri
+        int end = query.indexOf('>', i);
+        if (end < 0) {
+          return empty();
+        }
+        i = end + 1;
+      } else {
+        return empty();
+      }
+    }
+    return empty();
   }
 
   static Optional<QueryTuple> parseQuery(String query, boolean forceRead) {
     try {
-      return of(new QueryTuple(QueryFactory.create(query), QueryType.READ));
+      return of(cached(query, q -> new QueryTuple(QueryFactory.create(q), QueryType.READ)))
+        .filter(tuple -> tuple.type() == QueryType.READ)
+        .map(tuple -> new QueryTuple(((Query) tuple.query()).cloneQuery(), QueryType.READ));
     } catch (QueryException exception) {
-      LOGGER.error("unsupported operation:", exception);
+      LOGGER.debug("unsupported operation:", exception);
       if (forceRead) {
         throw new RuntimeException(exception.getMessage());
       }
@@ -39,12 +124,37 @@ public interface QueryParserUtil {
   }
 
   static Optional<QueryTuple> parseUpdate(String query) {
+    try {
+      return of(cached(query, q -> new QueryTuple(UpdateFactory.create(q), QueryType.UPDATE)))
+        .filter(tuple -> tuple.type() == QueryType.UPDATE);
+    } catch (Exception exc) {
+      LOGGER.warn("unsupported operation: {}", exc.getMessage());
+      throw new RuntimeException(exc.getMessage());
+    }
+  }
+
+  /**
+   * Like parseUpdate, for the one that applies the update: the parsed update
+   * is taken out of the cache, so no other thread uses it meanwhile.
+   */
+  static Optional<QueryTuple> takeUpdate(String query) {
+    var parsed = PARSED_CACHE.asMap().remove(query);
+    if (parsed != null && parsed.type() == QueryType.UPDATE) {
+      return of(parsed);
+    }
     try {
       return of(new QueryTuple(UpdateFactory.create(query), QueryType.UPDATE));
     } catch (Exception exc) {
-      LOGGER.error("unsupported operation:", exc);
+      LOGGER.warn("unsupported operation: {}", exc.getMessage());
       throw new RuntimeException(exc.getMessage());
     }
   }
 
+  private static QueryTuple cached(String query, Function<String, QueryTuple> parser) {
+    if (query.length() > MAX_CACHED_QUERY_LENGTH) {
+      return parser.apply(query);
+    }
+    return PARSED_CACHE.get(query, parser);
+  }
+
 }
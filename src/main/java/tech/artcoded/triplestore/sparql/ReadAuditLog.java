@@ -0,0 +1,131 @@
+package tech.artcoded.triplestore.sparql;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.ProducerTemplate;
+import org.apache.jena.query.Query;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Audit of the read queries, off the request path. Requests only sample and
+ * enqueue the query text, a scheduled task publishes them to the sparql-read
+ * queue, one message per query as before.
+ * <p>
+ * The buffer is bounded: when the broker is slow or down, new entries are
+ * dropped instead of slowing down the reads.
+ */
+@Component
+@Slf4j
+public class ReadAuditLog {
+  static final String ENDPOINT = "jms:queue:sparql-read";
+
+  record Entry(String query, String accept, String client, long timestamp) {
+  }
+
+  private final ProducerTemplate producerTemplate;
+  private final boolean enabled;
+  private final double sampleRate;
+  private final int capacity;
+  private final int batchSize;
+
+  // lock-free, bounded by size so offering never blocks a request
+  private final Queue<Entry> buffer = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final Counter published;
+  private final Counter dropped;
+
+  public ReadAuditLog(ProducerTemplate producerTemplate,
+      @Value("${triplestore.query.audit.enabled}") boolean enabled,
+      @Value("${triplestore.query.audit.sampleRate}") double sampleRate,
+      @Value("${triplestore.query.audit.capacity}") int capacity,
+      @Value("${triplestore.query.audit.batchSize}") int batchSize,
+      MeterRegistry meterRegistry) {
+    this.producerTemplate = producerTemplate;
+    this.enabled = enabled && sampleRate > 0;
+    this.sampleRate = sampleRate;
+    this.capacity = capacity;
+    this.batchSize = Math.max(batchSize, 1);
+    Gauge.builder("triplestore.query.audit.buffered", size, AtomicInteger::get)
+        .description("read queries waiting to be published")
+        .register(meterRegistry);
+    this.published = Counter.builder("triplestore.query.audit.entries")
+        .tag("outcome", "published")
+        .description("audited read queries, published or dropped when the buffer was full or the broker failed")
+        .register(meterRegistry);
+    this.dropped = Counter.builder("triplestore.query.audit.entries")
+        .tag("outcome", "dropped")
+        .description("audited read queries, published or dropped when the buffer was full or the broker failed")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Never blocks: the query is sampled, then its text is enqueued unless the
+   * buffer is full. The query itself may be changed by the caller afterwards.
+   */
+  public void record(Query query, String accept, String client) {
+    if (!enabled || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+      return;
+    }
+    if (size.incrementAndGet() > capacity) {
+      size.decrementAndGet();
+      dropped.increment();
+      return;
+    }
+    buffer.offer(new Entry(query.serialize(), accept, client, System.currentTimeMillis()));
+  }
+
+  @Scheduled(fixedDelayString = "${triplestore.query.audit.flushIntervalMs}")
+  public void flush() {
+    List<Entry> batch;
+    while (!(batch = drain()).isEmpty()) {
+      for (int i = 0; i < batch.size(); i++) {
+        try {
+          producerTemplate.sendBodyAndHeaders(ENDPOINT, ExchangePattern.InOnly, batch.get(i).query(),
+              headers(batch.get(i)));
+          published.increment();
+        } catch (Exception exc) {
+          dropped.increment(batch.size() - i);
+          log.warn("could not publish {} audit entries: {}", batch.size() - i, exc.getMessage());
+          return;
+        }
+      }
+    }
+  }
+
+  private static Map<String, Object> headers(Entry entry) {
+    var headers = new HashMap<String, Object>();
+    headers.put("accept", entry.accept());
+    headers.put("client", entry.client());
+    headers.put("timestamp", entry.timestamp());
+    return headers;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flush();
+  }
+
+  private List<Entry> drain() {
+    var batch = new ArrayList<Entry>(Math.min(batchSize, Math.max(size.get(), 0)));
+    Entry entry;
+    while (batch.size() < batchSize && (entry = buffer.poll()) != null) {
+      size.decrementAndGet();
+      batch.add(entry);
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,99 @@
+package tech.artcoded.triplestore.sparql;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Closes what a streamed response holds until its body ran, e.g. the slots
+ * of a query, once the request completes: the body never runs when the async
+ * request times out or fails before it starts. Closing them must be
+ * idempotent, the body closes them too.
+ */
+@Component
+@Slf4j
+public class RequestResources extends OncePerRequestFilter {
+  private static final String ATTRIBUTE = RequestResources.class.getName();
+
+  /**
+   * outside of a request, e.g. in tests, the resource is left to the caller
+   */
+  static void closeOnCompletion(AutoCloseable resource) {
+    var attributes = RequestContextHolder.getRequestAttributes();
+    if (attributes != null) {
+      resources(attributes).add(resource);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<AutoCloseable> resources(RequestAttributes attributes) {
+    var resources = (List<AutoCloseable>) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    if (resources == null) {
+      resources = new ArrayList<>();
+      attributes.setAttribute(ATTRIBUTE, resources, RequestAttributes.SCOPE_REQUEST);
+    }
+    return resources;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      if (request.isAsyncStarted()) {
+        request.getAsyncContext().addListener(new Completion(request));
+      } else {
+        close(request);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static void close(ServletRequest request) {
+    var resources = (List<AutoCloseable>) request.getAttribute(ATTRIBUTE);
+    if (resources == null) {
+      return;
+    }
+    request.removeAttribute(ATTRIBUTE);
+    for (AutoCloseable resource : resources) {
+      try {
+        resource.close();
+      } catch (Exception exc) {
+        log.warn("could not release a resource of the request: {}", exc.getMessage());
+      }
+    }
+  }
+
+  private record Completion(ServletRequest request) implements AsyncListener {
+    @Override
+    public void onComplete(AsyncEvent event) {
+      close(request);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      event.getAsyncContext().addListener(this);
+    }
+  }
+}
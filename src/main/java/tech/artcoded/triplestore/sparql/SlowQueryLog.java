@@ -0,0 +1,51 @@
+package tech.artcoded.triplestore.sparql;
+
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.query.Query;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs the queries slower than the threshold, with what is needed to fix
+ * them: the normalized query, the optimized algebra, where the time went,
+ * the size of the result and who sent it. The logger can be routed to its own
+ * file with the logging config.
+ */
+@Component
+@Slf4j
+public class SlowQueryLog {
+  private final long thresholdNanos;
+
+  public SlowQueryLog(@Value("${triplestore.query.slowLog.thresholdMs}") long thresholdMs) {
+    this.thresholdNanos = thresholdMs < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+  }
+
+  /**
+   * @param results rows or triples, -1 when unknown
+   */
+  public void record(Query query, String queryId, String endpoint, String client, long parseNanos,
+      long executionNanos, long responseNanos, long results, long bytes) {
+    long total = parseNanos + executionNanos + responseNanos;
+    if (total < thresholdNanos) {
+      return;
+    }
+    String algebra;
+    try {
+      algebra = AlgebraUtil.optimized(query).toString();
+    } catch (Exception exc) {
+      algebra = "n/a (%s)".formatted(exc.getMessage());
+    }
+    log.warn("""
+        slow query {} on {} from '{}': {}ms (parse {}ms, execution {}ms, response {}ms), {} results, {} bytes
+        {}
+        algebra:
+        {}""",
+        queryId, endpoint, client, millis(total), millis(parseNanos), millis(executionNanos), millis(responseNanos),
+        results, bytes, query.serialize(), algebra);
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+}
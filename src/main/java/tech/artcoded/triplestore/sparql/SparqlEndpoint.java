@@ -1,101 +1,186 @@
 package tech.artcoded.triplestore.sparql;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.CountingOutputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.camel.ExchangePattern;
 import org.apache.camel.ProducerTemplate;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryType;
+import org.apache.jena.riot.Lang;
 import org.apache.jena.update.UpdateRequest;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import tech.artcoded.triplestore.tdb.ContentNegotiation;
+import tech.artcoded.triplestore.tdb.MaterializedViews;
+import tech.artcoded.triplestore.tdb.QueryCursors;
+import tech.artcoded.triplestore.tdb.QueryRejectedException;
+import tech.artcoded.triplestore.tdb.ReplicaFollower;
 import tech.artcoded.triplestore.tdb.TDBService;
+import tech.artcoded.triplestore.tdb.TriplestoreMetrics;
 
 import jakarta.servlet.http.HttpServletRequest;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Optional.*;
-import static java.util.concurrent.CompletableFuture.runAsync;
 import static org.springframework.http.HttpHeaders.ACCEPT;
+import static org.springframework.http.HttpHeaders.CACHE_CONTROL;
 import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpHeaders.RETRY_AFTER;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static tech.artcoded.triplestore.sparql.QueryParserUtil.parseOperation;
 
 @RestController
 @Slf4j
 public class SparqlEndpoint {
+  static final String CURSOR_HEADER = "X-Cursor";
+  static final String QUERY_ID_HEADER = "X-Query-Id";
+
   private final ProducerTemplate producerTemplate;
   private final TDBService tdbService;
 
   @Value("${application.security.enabled}")
   private boolean securityEnabled;
+  @Value("${triplestore.update.sync.maxWaitMs}")
+  private long syncUpdateMaxWaitMs;
   private final SparqlSecurityConfig sparqlConfig;
 
-  public SparqlEndpoint(ProducerTemplate producerTemplate, SparqlSecurityConfig sparqlConfig, TDBService tdbService) {
+  private final QueryAdmissionController admissionController;
+
+  private final TriplestoreMetrics metrics;
+  private final SlowQueryLog slowQueryLog;
+  private final ReadAuditLog readAuditLog;
+  private final ReplicaFollower replicaFollower;
+  private final QueryCursors queryCursors;
+  private final MaterializedViews views;
+  private final ObjectMapper objectMapper;
+
+  /**
+   * @param explain  null to execute the query, 'plan' or 'profile' to explain it
+   * @param sync     apply an update before answering instead of queuing it
+   * @param pageSize when set, a SELECT is answered page by page through a cursor
+   * @param queryId  sent back in the X-Query-Id header and logged with the query
+   */
+  record SparqlRequest(String endpoint, String accept, boolean forceRead, boolean useCache, String client,
+      String explain, boolean sync, Integer pageSize, String queryId) {
+  }
+
+  public SparqlEndpoint(ProducerTemplate producerTemplate, SparqlSecurityConfig sparqlConfig, TDBService tdbService,
+      QueryAdmissionController admissionController, TriplestoreMetrics metrics, SlowQueryLog slowQueryLog,
+      ReadAuditLog readAuditLog, ReplicaFollower replicaFollower, QueryCursors queryCursors,
+      MaterializedViews views, ObjectMapper objectMapper) {
     this.producerTemplate = producerTemplate;
     this.tdbService = tdbService;
     this.sparqlConfig = sparqlConfig;
+    this.admissionController = admissionController;
+    this.metrics = metrics;
+    this.slowQueryLog = slowQueryLog;
+    this.readAuditLog = readAuditLog;
+    this.replicaFollower = replicaFollower;
+    this.queryCursors = queryCursors;
+    this.views = views;
+    this.objectMapper = objectMapper;
   }
 
   @RequestMapping(value = "/public/sparql", method = { RequestMethod.GET, RequestMethod.POST })
   public ResponseEntity<StreamingResponseBody> executePublicQuery(
       @RequestParam(value = "query", required = false) String query,
       @RequestParam(value = "update", required = false) String update,
+      @RequestParam(value = "explain", required = false) String explain,
+      @RequestParam(value = "sync", defaultValue = "false") boolean sync,
+      @RequestParam(value = "pageSize", required = false) Integer pageSize,
       HttpServletRequest request) {
-    return execute(query, update, request, true);
+    return execute(query, update, explain, sync, pageSize, request, true);
   }
 
   @RequestMapping(value = "/sparql", method = { RequestMethod.GET, RequestMethod.POST })
   public ResponseEntity<StreamingResponseBody> executeQuery(
       @RequestParam(value = "query", required = false) String query,
       @RequestParam(value = "update", required = false) String update,
+      @RequestParam(value = "explain", required = false) String explain,
+      @RequestParam(value = "sync", defaultValue = "false") boolean sync,
+      @RequestParam(value = "pageSize", required = false) Integer pageSize,
       HttpServletRequest request) {
-    return execute(query, update, request, false);
+    return execute(query, update, explain, sync, pageSize, request, false);
   }
 
-  ResponseEntity<StreamingResponseBody> execute(String query, String update, HttpServletRequest request,
-      boolean forceRead) {
-    String accept = request.getHeader(ACCEPT);
+  ResponseEntity<StreamingResponseBody> execute(String query, String update, String explain, boolean sync,
+      Integer pageSize, HttpServletRequest request, boolean forceRead) {
+    var sparqlRequest = new SparqlRequest(
+        request.getRequestURI(),
+        request.getHeader(ACCEPT),
+        forceRead,
+        // per-query opt-out of the result cache
+        !StringUtils.containsAnyIgnoreCase(request.getHeader(CACHE_CONTROL), "no-cache", "no-store"),
+        clientOf(request),
+        explain,
+        sync,
+        pageSize,
+        UUID.randomUUID().toString());
 
     return ofNullable(query).filter(StringUtils::isNotEmpty)
         .or(() -> ofNullable(update))
-        .map(q -> tryParseExecute(q, accept, forceRead))
+        .map(q -> tryParseExecute(q, sparqlRequest))
         .orElseGet(ResponseEntity.noContent()::build);
   }
 
-  ResponseEntity<StreamingResponseBody> tryParseExecute(String query, String accept, boolean forceRead) {
+  ResponseEntity<StreamingResponseBody> tryParseExecute(String query, SparqlRequest request) {
     try {
-      return parseOperation(query, forceRead).flatMap(operation -> switch (operation.type()) {
+      long start = System.nanoTime();
+      var parsed = parseOperation(query, request.forceRead());
+      long parseNanos = System.nanoTime() - start;
+      metrics.recordParse(request.endpoint(), parsed.map(SparqlEndpoint::typeOf).orElse("NONE"), parseNanos);
+      return parsed.flatMap(operation -> switch (operation.type()) {
         case READ:
           if (operation.query() instanceof Query q)
 
-            yield of(executeRead(q, accept));
+            yield of(request.explain() != null ? explain(q, request)
+                : request.pageSize() != null ? openCursor(q, request) : executeRead(q, request, parseNanos));
           else
 
             yield empty();
         case UPDATE:
-          if (operation.query() instanceof
-
-          UpdateRequest upq)
+          if (request.explain() != null)
+            throw new IllegalArgumentException("explain is only supported for queries");
+          else if (operation.query() instanceof UpdateRequest)
 
-            yield of(executeUpdate(upq));
+            yield of(executeUpdate(query, request));
           else
 
             yield empty();
       }).orElseGet(() -> ResponseEntity.noContent().build());
+    } catch (ClientQuotaExceededException exc) {
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+          .header(RETRY_AFTER, "1")
+          .body((out) -> IOUtils.write("{error: '%s'}".formatted(exc.getMessage()), out, UTF_8));
+    } catch (QueryRejectedException exc) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(RETRY_AFTER, "1")
+          .body((out) -> IOUtils.write("{error: '%s'}".formatted(exc.getMessage()), out, UTF_8));
     } catch (
 
     Exception exc) {
@@ -104,30 +189,206 @@ public class SparqlEndpoint {
     }
   }
 
-  ResponseEntity<StreamingResponseBody> executeRead(Query query, String accept) {
-    runAsync(() -> this.producerTemplate.sendBodyAndHeader("jms:queue:sparql-read", ExchangePattern.InOnly,
-        query.serialize(),
-        "accept", accept));
-    var response = tdbService.executeQuery(query, accept);
+  /**
+   * Every read is audited, including the ones answered by a view or the
+   * result cache. Only the ones that are executed are admitted.
+   */
+  ResponseEntity<StreamingResponseBody> executeRead(Query query, SparqlRequest request, long parseNanos) {
+    readAuditLog.record(query, request.accept(), request.client());
+    long start = System.nanoTime();
+    var prepared = tdbService.prepare(query, request.accept(), request.useCache());
+    var answer = tdbService.lookup(prepared);
+    if (answer.isPresent()) {
+      var response = answer.get();
+      return ResponseEntity.status(200).header(CONTENT_TYPE, response.getContentType())
+          .header(QUERY_ID_HEADER, request.queryId())
+          .body(measured(request, query, response, parseNanos, System.nanoTime() - start, response::writeTo));
+    }
+    var permit = admissionController.admit(query, prepared.op(), request.client());
+    // released once the request completes, if the streamed body never ran
+    RequestResources.closeOnCompletion(permit);
+    SparqlResult response;
+    try {
+      response = tdbService.execute(prepared);
+    } catch (RuntimeException exc) {
+      permit.close();
+      throw exc;
+    }
+    RequestResources.closeOnCompletion(response::release);
+    long executionNanos = System.nanoTime() - start;
+    if (response.getWriter() == null) {
+      // already executed and buffered, the slots are not needed to send it
+      permit.close();
+      return ResponseEntity.status(200).header(CONTENT_TYPE, response.getContentType())
+          .header(QUERY_ID_HEADER, request.queryId())
+          .body(measured(request, query, response, parseNanos, executionNanos, response::writeTo));
+    }
     return ResponseEntity.status(200).header(CONTENT_TYPE, response.getContentType())
-        .body((out) -> {
-          try (var is = response.getBody()) {
-            IOUtils.copyLarge(is, out);
+        .header(QUERY_ID_HEADER, request.queryId())
+        .body(measured(request, query, response, parseNanos, executionNanos, out -> {
+          try (permit) {
+            response.writeTo(out);
           }
-        });
+        }));
   }
 
-  ResponseEntity<StreamingResponseBody> executeUpdate(UpdateRequest update) {
+  /**
+   * First page of a SELECT, the X-Cursor header gives the token of the next
+   * one. Each page is admitted for the time it is read.
+   */
+  ResponseEntity<StreamingResponseBody> openCursor(Query query, SparqlRequest request) {
+    readAuditLog.record(query, request.accept(), request.client());
+    QueryCursors.Page page;
+    try (var _ = admissionController.admit(query, request.client())) {
+      page = queryCursors.open(query, request.client(), request.pageSize());
+    }
+    return page(page, request.accept());
+  }
+
+  @RequestMapping(value = { "/sparql/cursors/{cursor}", "/public/sparql/cursors/{cursor}" },
+      method = { RequestMethod.GET, RequestMethod.POST })
+  public ResponseEntity<StreamingResponseBody> nextPage(@PathVariable("cursor") String cursor,
+      @RequestParam(value = "pageSize", defaultValue = "1000") int pageSize,
+      HttpServletRequest request) {
+    String client = clientOf(request);
+    QueryCursors.Page page;
+    try (var _ = admissionController.admit(queryCursors.query(cursor, client), client)) {
+      page = queryCursors.next(cursor, client, pageSize);
+    } catch (NoSuchElementException exc) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND)
+          .body((out) -> IOUtils.write("{error: '%s'}".formatted(exc.getMessage()), out, UTF_8));
+    } catch (ClientQuotaExceededException exc) {
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+          .header(RETRY_AFTER, "1")
+          .body((out) -> IOUtils.write("{error: '%s'}".formatted(exc.getMessage()), out, UTF_8));
+    } catch (QueryRejectedException exc) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(RETRY_AFTER, "1")
+          .body((out) -> IOUtils.write("{error: '%s'}".formatted(exc.getMessage()), out, UTF_8));
+    } catch (Exception exc) {
+      return ResponseEntity.status(400)
+          .body((out) -> IOUtils.write("{error: '%s'}".formatted(exc.getMessage()), out, UTF_8));
+    }
+    return page(page, request.getHeader(ACCEPT));
+  }
+
+  @DeleteMapping({ "/sparql/cursors/{cursor}", "/public/sparql/cursors/{cursor}" })
+  public ResponseEntity<Void> closeCursor(@PathVariable("cursor") String cursor, HttpServletRequest request) {
+    return queryCursors.close(cursor, clientOf(request)) ? ResponseEntity.noContent().build()
+        : ResponseEntity.notFound().build();
+  }
+
+  /**
+   * the rows of a materialized view, without going through the query engine
+   */
+  @GetMapping({ "/sparql/views/{name}", "/public/sparql/views/{name}" })
+  public ResponseEntity<StreamingResponseBody> view(@PathVariable("name") String name, HttpServletRequest request) {
+    MaterializedViews.Rows rows;
+    try {
+      rows = views.rows(name);
+    } catch (NoSuchElementException exc) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND)
+          .body((out) -> IOUtils.write("{error: '%s'}".formatted(exc.getMessage()), out, UTF_8));
+    }
+    Lang lang = ContentNegotiation.negotiate(request.getHeader(ACCEPT), QueryType.SELECT);
+    return ResponseEntity.status(200).header(CONTENT_TYPE, lang.getContentType().getContentTypeStr())
+        .body(out -> rows.writeTo(out, lang));
+  }
+
+  ResponseEntity<StreamingResponseBody> page(QueryCursors.Page page, String accept) {
+    Lang lang = ContentNegotiation.negotiate(accept, QueryType.SELECT);
+    var response = ResponseEntity.status(200).header(CONTENT_TYPE, lang.getContentType().getContentTypeStr());
+    if (page.cursor() != null) {
+      response.header(CURSOR_HEADER, page.cursor());
+    }
+    return response.body(out -> page.writeTo(out, lang));
+  }
+
+  /**
+   * A failure once the response is started closes the connection, the client
+   * sees an incomplete transfer rather than a truncated 200.
+   */
+  StreamingResponseBody measured(SparqlRequest request, Query query, SparqlResult response, long parseNanos,
+      long executionNanos, StreamingResponseBody body) {
+    String type = query.queryType().name();
+    var exchange = StreamedExchange.current();
+    return out -> {
+      long start = System.nanoTime();
+      var counting = new CountingOutputStream(out);
+      try {
+        body.writeTo(counting);
+      } catch (IOException | RuntimeException exc) {
+        if (!exchange.abortIfStarted()) {
+          throw exc;
+        }
+        log.error("query {} from '{}' failed after {} bytes, connection closed: {}", request.queryId(),
+            request.client(), counting.getCount(), exc.getMessage());
+      } finally {
+        long responseNanos = System.nanoTime() - start;
+        metrics.recordResponse(request.endpoint(), type, responseNanos, counting.getCount());
+        slowQueryLog.record(query, request.queryId(), request.endpoint(), request.client(), parseNanos,
+            executionNanos, responseNanos, response.getResults(), counting.getCount());
+      }
+    };
+  }
+
+  /**
+   * plan: the optimized algebra, the query is not executed. profile: the query
+   * is executed and each operator reports its cardinality and time.
+   */
+  ResponseEntity<StreamingResponseBody> explain(Query query, SparqlRequest request) {
+    var plan = switch (request.explain().toLowerCase()) {
+      case "plan" -> tdbService.explain(query);
+      case "profile" -> {
+        try (var _ = admissionController.admit(query, request.client())) {
+          yield tdbService.profile(query);
+        }
+      }
+      default -> throw new IllegalArgumentException("explain must be 'plan' or 'profile'");
+    };
+    return ResponseEntity.status(200).header(CONTENT_TYPE, APPLICATION_JSON_VALUE)
+        .body(out -> out.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(plan)));
+  }
+
+  static String typeOf(QueryParserUtil.QueryTuple operation) {
+    return operation.query() instanceof Query q ? q.queryType().name() : "UPDATE";
+  }
+
+  ResponseEntity<StreamingResponseBody> executeUpdate(String update, SparqlRequest request) {
     if (!canUpdate()) {
       return ResponseEntity.status(HttpStatus.FORBIDDEN)
           .body(out -> IOUtils.write("You cannot perform this action", out, UTF_8));
     }
+    if (replicaFollower.isFollower()) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN)
+          .body(out -> IOUtils.write("This instance is a read-only replica, send updates to the leader", out, UTF_8));
+    }
+    if (request.sync()) {
+      // read-your-writes: applied before answering, may overtake updates still in the queue
+      var result = tdbService.executeUpdateQuery(update, Duration.ofMillis(syncUpdateMaxWaitMs));
+      return ResponseEntity.status(200).header(CONTENT_TYPE, APPLICATION_JSON_VALUE)
+          .body(out -> out.write(objectMapper.writeValueAsBytes(result)));
+    }
+    // the raw text is sent as is, so the consumer finds it in the parsed cache
     CompletableFuture.runAsync(
-        () -> this.producerTemplate.sendBody("jms:queue:sparql-update", ExchangePattern.InOnly, update.toString()));
+        () -> this.producerTemplate.sendBody("jms:queue:sparql-update", ExchangePattern.InOnly, update));
     return ResponseEntity.status(200)
         .body((out) -> IOUtils.write("processing update", out, UTF_8));
   }
 
+  /**
+   * @return the jwt subject (or basic auth user) when authenticated, the remote
+   *         address otherwise: the client one behind a proxy, read from
+   *         X-Forwarded-For by the forward headers strategy
+   */
+  String clientOf(HttpServletRequest request) {
+    return ofNullable(SecurityContextHolder.getContext().getAuthentication())
+        .filter(Authentication::isAuthenticated)
+        .filter(authentication -> !(authentication instanceof AnonymousAuthenticationToken))
+        .map(Authentication::getName)
+        .orElseGet(request::getRemoteAddr);
+  }
+
   boolean canUpdate() {
     if (securityEnabled) {
       List<String> roles = ofNullable(sparqlConfig.getAllowedRoles()).orElseGet(Set::of)
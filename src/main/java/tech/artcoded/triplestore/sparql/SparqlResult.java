@@ -4,9 +4,13 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.apache.commons.io.IOUtils;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.function.Consumer;
 
 @Data
 @NoArgsConstructor
@@ -15,4 +19,36 @@ import java.io.Serializable;
 public class SparqlResult implements Serializable {
   private String contentType;
   private InputStream body;
+  /**
+   * when set, the result is not buffered: the writer executes the query and
+   * serializes it directly into the output stream.
+   */
+  private transient Consumer<OutputStream> writer;
+  /**
+   * rows or triples of the result, -1 when unknown. Set once written when
+   * the result is streamed.
+   */
+  @Builder.Default
+  private long results = -1;
+  /**
+   * what the writer holds until it runs, e.g. its execution slot, released
+   * when the response is given up before
+   */
+  private transient AutoCloseable resources;
+
+  public void release() throws Exception {
+    if (resources != null) {
+      resources.close();
+    }
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    if (writer != null) {
+      writer.accept(out);
+    } else {
+      try (var is = body) {
+        IOUtils.copyLarge(is, out);
+      }
+    }
+  }
 }
@@ -0,0 +1,39 @@
+package tech.artcoded.triplestore.sparql;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.servlet.handlers.ServletRequestContext;
+import java.io.IOException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The undertow exchange of a streamed response, captured on the request
+ * thread: the body is written on another one, where it is not current
+ * anymore.
+ */
+@Slf4j
+record StreamedExchange(HttpServerExchange exchange) {
+
+  static StreamedExchange current() {
+    var context = ServletRequestContext.current();
+    return new StreamedExchange(context == null ? null : context.getExchange());
+  }
+
+  /**
+   * Once the status and the first bytes are sent, a failure can only be
+   * reported by closing the connection: completing the response would hand
+   * the client a truncated 200 that looks complete.
+   *
+   * @return true when the response was started and its connection closed
+   */
+  boolean abortIfStarted() {
+    if (exchange == null || !exchange.isResponseStarted()) {
+      return false;
+    }
+    try {
+      exchange.getConnection().close();
+    } catch (IOException exc) {
+      log.debug("could not close the connection", exc);
+    }
+    return true;
+  }
+}
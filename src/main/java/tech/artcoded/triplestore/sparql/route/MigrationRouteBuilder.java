@@ -1,72 +1,97 @@
 package tech.artcoded.triplestore.sparql.route;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import org.apache.camel.Body;
-import org.apache.camel.Exchange;
+import lombok.SneakyThrows;
 import org.apache.camel.ExchangePattern;
-import org.apache.camel.Header;
 import org.apache.camel.builder.RouteBuilder;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.jena.atlas.io.IO;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import tech.artcoded.triplestore.tdb.MigrationFiles;
+import tech.artcoded.triplestore.tdb.MigrationLedger;
+import tech.artcoded.triplestore.tdb.ReplicaFollower;
 import tech.artcoded.triplestore.tdb.TDBService;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static java.util.Optional.ofNullable;
 import static tech.artcoded.triplestore.sparql.route.Constants.*;
 
+/**
+ * Applies the files of the migration directory in name order, each once: the
+ * applied ones are recorded in the migration ledger and moved to .camel, as
+ * the camel file consumer did. A changed rdf file replaces the triples of its
+ * previous version, read from .camel.
+ * <p>
+ * A failed file stops the migrations: the batches of an rdf file written
+ * before the error stay, and the files after it may depend on it. It stays
+ * in place and the ones after it wait until it is fixed.
+ */
 @Component
 public class MigrationRouteBuilder extends RouteBuilder {
   private final TDBService tdbService;
+  private final ReplicaFollower replicaFollower;
+  private final MigrationLedger ledger;
+  // files that failed, retried once they change or after a restart
+  private final Set<String> failed = ConcurrentHashMap.newKeySet();
 
+  @Value("${triplestore.migration.dir}")
+  private String migrationDir;
   @Value("${triplestore.migration.defaultGraph}")
   private String defaultGraph;
+  @Value("${triplestore.migration.streaming}")
+  private boolean streaming;
+  @Value("${triplestore.migration.settleMs}")
+  private long settleMs;
 
-  private static final Cache<String, String> GRAPH_CACHE = Caffeine.newBuilder()
-      .expireAfterAccess(Duration.ofMinutes(5))
-      .maximumSize(1000)
-      .build();
-
-  public MigrationRouteBuilder(TDBService tdbService) {
+  public MigrationRouteBuilder(TDBService tdbService, ReplicaFollower replicaFollower, MigrationLedger ledger) {
     this.tdbService = tdbService;
+    this.replicaFollower = replicaFollower;
+    this.ledger = ledger;
+  }
+
+  record Migration(String uuid, String file, long count) {
   }
 
-  record Migration(String uuid, long count) {
+  /**
+   * @param graph null for a sparql update
+   */
+  record Pending(Path file, String graph) {
   }
 
   @Override
   public void configure() throws Exception {
+    if (replicaFollower.isFollower()) {
+      // a replica gets the migrations of the leader through its patch log
+      log.info("read-only replica, migrations are not applied");
+      return;
+    }
     onException(Exception.class)
         .handled(true)
         .log("Exception occurred due: ${exception.message}");
 
-    from("file:{{triplestore.migration.dir}}?sortBy=file:name;file:modified")
+    from("timer:migration?period={{triplestore.migration.pollIntervalMs}}")
         .routeId("MigrationRoute::Entrypoint")
-        .log("receiving file '${headers.%s}', will execute migration to the triplestore".formatted(Exchange.FILE_NAME))
-        .convertBodyTo(byte[].class)
-        .choice()
-        .when(header(Exchange.FILE_NAME).endsWith("graph"))
-        .bean(() -> this, "addGraphToCache")
-        .otherwise()
-        .setProperty(HEADER_TITLE,
-            simple("'${headers.%s}', has been executed to the triplestore".formatted(Exchange.FILE_NAME)))
+        .bean(() -> this, "migrate")
+        .split(body())
+        .setProperty(HEADER_TITLE, simple("'${body.file}', has been executed to the triplestore"))
         .setProperty(HEADER_TYPE, constant(SYNC_FILE_TRIPLESTORE))
-        .to(ExchangePattern.InOnly, "direct:perform-migration")
-        .endChoice();
+        .to(ExchangePattern.InOnly, "direct:perform-migration");
 
     from("direct:perform-migration")
         .routeId("MigrationRoute::PerformMigrationInternal")
-        .bean(() -> this, "performMigration")
         .choice()
         .when(simple("${body.count} > 0"))
         .transform(simple("${body.uuid}"))
@@ -79,27 +104,121 @@ public class MigrationRouteBuilder extends RouteBuilder {
         .endChoice();
   }
 
-  void addGraphToCache(@Body byte[] file,
-      @Header(Exchange.FILE_NAME) String fileName) {
-    GRAPH_CACHE.put(FilenameUtils.getBaseName(fileName), IOUtils.toString(file, StandardCharsets.UTF_8.name()));
+  /**
+   * @return the migrations applied by this pass
+   */
+  @SneakyThrows
+  List<Migration> migrate() {
+    var applied = new ArrayList<Migration>();
+    for (Path file : MigrationFiles.list(Path.of(migrationDir))) {
+      if (!settled(file)) {
+        // still being copied, it and the files after it wait for the next pass
+        break;
+      }
+      boolean sparql = MigrationFiles.isSparql(file);
+      String graph = sparql ? null : MigrationFiles.graphOf(file, defaultGraph);
+      if (failed.contains(key(file))) {
+        break;
+      }
+      if (ledger.isApplied(file, graph)) {
+        // dropped again, or applied before a crash could move it
+        archive(file);
+        continue;
+      }
+      var migration = apply(new Pending(file, graph));
+      if (migration.isEmpty()) {
+        break;
+      }
+      applied.add(migration.get());
+    }
+    return applied;
+  }
+
+  private Optional<Migration> apply(Pending pending) {
+    Path file = pending.file();
+    String fileName = file.getFileName().toString();
+    log.info("receiving file '{}', will execute migration to the triplestore", fileName);
+    try {
+      long start = System.nanoTime();
+      long count = pending.graph() == null ? update(file) : unloadPrevious(file) + load(file, pending.graph());
+      var entry = ledger.record(file, pending.graph(), count, System.nanoTime() - start);
+      log.info("migration '{}' applied in {}ms, {} triples changed", fileName, entry.durationMs(), count);
+      archive(file);
+      return Optional.of(new Migration(UUID.randomUUID().toString(), fileName, count));
+    } catch (Exception exc) {
+      failed.add(key(file));
+      log.error("migration '{}' failed, it and the files after it wait until it changes: {}", fileName,
+          exc.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  private long update(Path file) throws IOException {
+    String updateQuery;
+    try (var is = IO.openFileEx(file.toString())) {
+      updateQuery = IOUtils.toString(is, StandardCharsets.UTF_8);
+    }
+    var summary = tdbService.executeUpdateQuery(updateQuery);
+    return summary.getCountAddData() + summary.getCountDeleteData();
   }
 
-  Migration performMigration(@Body byte[] file,
-      @Header(Exchange.FILE_NAME) String fileName) {
-    String extension = FilenameUtils.getExtension(fileName);
+  /**
+   * @return the triples of the previous version of the file removed from its
+   *         graph, 0 for a new file
+   */
+  private long unloadPrevious(Path file) throws IOException {
+    var previous = ledger.get(file.getFileName().toString()).filter(entry -> entry.graph() != null);
+    Path archived = MigrationFiles.archiveOf(file);
+    if (previous.isEmpty() || !Files.isRegularFile(archived)) {
+      return 0;
+    }
+    log.info("'{}' changed, removing the triples of its previous version from <{}>", file.getFileName(),
+        previous.get().graph());
+    try (var is = IO.openFileEx(archived.toString())) {
+      return tdbService.batchDeleteData(previous.get().graph(), sink -> RDFParser.source(is)
+          .lang(MigrationFiles.langOf(archived)).parse(MigrationFiles.triplesOnly(sink, archived)));
+    }
+  }
 
-    if ("sparql".equalsIgnoreCase(extension)) {
-      var summary = tdbService.executeUpdateQuery(IOUtils.toString(file, StandardCharsets.UTF_8.name()));
-      return new Migration(UUID.randomUUID().toString(), summary.getCountAddData() + summary.getCountDeleteData());
-    } else {
-      Lang lang = RDFLanguages.filenameToLang(fileName);
+  private long load(Path file, String graph) throws IOException {
+    // binary rdf is resolved by its extension too: RDF-Thrift (.rt) and RDF-Protobuf (.rpb)
+    Lang lang = MigrationFiles.langOf(file);
+    try (var is = IO.openFileEx(file.toString())) {
+      if (streaming) {
+        return tdbService.batchLoadData(graph,
+            sink -> RDFParser.source(is).lang(lang).parse(MigrationFiles.triplesOnly(sink, file)));
+      }
       var model = ModelFactory.createDefaultModel();
-      RDFDataMgr.read(model, new ByteArrayInputStream(file), lang);
-      String graph = ofNullable(GRAPH_CACHE.getIfPresent(FilenameUtils.getBaseName(fileName)))
-          .orElseGet(() -> defaultGraph);
-      var summary = tdbService.batchLoadData(graph, model);
-      return new Migration(UUID.randomUUID().toString(), summary);
+      RDFParser.source(is).lang(lang).parse(MigrationFiles.triplesOnly(StreamRDFLib.graph(model.getGraph()), file));
+      return tdbService.batchLoadData(graph, model);
+    }
+  }
+
+  private void archive(Path file) {
+    try {
+      MigrationFiles.archive(file);
+    } catch (IOException exc) {
+      // skipped as applied by the next pass, which moves it again
+      log.warn("could not move '{}' to {}: {}", file.getFileName(), MigrationFiles.ARCHIVE_DIR, exc.getMessage());
     }
+  }
 
+  /**
+   * @return true when the file and its sidecar did not change for settleMs
+   */
+  private boolean settled(Path file) throws IOException {
+    long now = System.currentTimeMillis();
+    Path sidecar = MigrationFiles.sidecarOf(file);
+    return now - Files.getLastModifiedTime(file).toMillis() >= settleMs
+        && (!Files.exists(sidecar) || now - Files.getLastModifiedTime(sidecar).toMillis() >= settleMs);
+  }
+
+  private static String key(Path file) {
+    try {
+      return "%s:%d:%d".formatted(file.getFileName(), Files.size(file),
+          Files.getLastModifiedTime(file).toMillis());
+    } catch (IOException exc) {
+      return file.getFileName().toString();
+    }
   }
 }
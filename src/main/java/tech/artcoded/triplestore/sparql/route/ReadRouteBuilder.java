@@ -17,7 +17,8 @@ public class ReadRouteBuilder extends RouteBuilder {
       .log(LoggingLevel.DEBUG, "an error occured: ${body}");
     from("jms:queue:sparql-read")
       .routeId("ReadRoute::EntryPoint")
-      .log(LoggingLevel.INFO, "receiving query:\n${body}");
+      // slow queries are logged with their timings by SlowQueryLog
+      .log(LoggingLevel.DEBUG, "receiving query:\n${body}");
     ;
   }
 }
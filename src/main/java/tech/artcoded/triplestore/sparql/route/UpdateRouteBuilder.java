@@ -2,20 +2,46 @@ package tech.artcoded.triplestore.sparql.route;
 
 import static tech.artcoded.triplestore.sparql.route.Constants.*;
 
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.JMSException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import org.apache.camel.Body;
 import org.apache.camel.ExchangePattern;
+import org.apache.camel.Header;
 import org.apache.camel.LoggingLevel;
+import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.RouteBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.core.JmsTemplate;
 import org.springframework.stereotype.Component;
 import tech.artcoded.triplestore.tdb.TDBService;
+import tech.artcoded.triplestore.tdb.TriplestoreMetrics;
 
 @Component
 public class UpdateRouteBuilder extends RouteBuilder {
+  static final String UPDATE_QUEUE = "sparql-update";
+
   private final TDBService sparqlClient;
+  private final TriplestoreMetrics metrics;
+  private final ProducerTemplate producerTemplate;
+  private final JmsTemplate jmsTemplate;
+
+  @Value("${triplestore.update.groupCommit.enabled}")
+  private boolean groupCommitEnabled;
+  @Value("${triplestore.update.groupCommit.maxMessages}")
+  private int groupCommitMaxMessages;
+  @Value("${triplestore.update.groupCommit.maxWaitMs}")
+  private long groupCommitMaxWaitMs;
 
-  public UpdateRouteBuilder(TDBService sparqlClient) {
+  public UpdateRouteBuilder(TDBService sparqlClient, TriplestoreMetrics metrics, ProducerTemplate producerTemplate,
+      ConnectionFactory connectionFactory) {
     this.sparqlClient = sparqlClient;
+    this.metrics = metrics;
+    this.producerTemplate = producerTemplate;
+    this.jmsTemplate = new JmsTemplate(connectionFactory);
+    this.jmsTemplate.setSessionTransacted(true);
   }
 
   @Override
@@ -33,11 +59,46 @@ public class UpdateRouteBuilder extends RouteBuilder {
         .log("old body was cleared")
         .endChoice();
 
-    from("jms:queue:sparql-update")
-        .routeId("UpdateRoute::EntryPoint")
+    if (groupCommitEnabled) {
+      // runs again as soon as the previous group is done, each run waits at most a second for a first update
+      from("timer:sparql-update-group-commit?delay=0&period=1")
+          .routeId("UpdateRoute::EntryPoint")
+          .bean(() -> this, "receiveGroup");
+
+      // a failing group is replayed message by message, so only the failing
+      // update ends up in the failure queue
+      from("direct:sparql-update-group-commit")
+          .routeId("UpdateRoute::GroupCommit")
+          .setProperty("batch", body())
+          .doTry()
+          .bean(() -> this, "processBatch")
+          .doCatch(Exception.class)
+          .log(LoggingLevel.WARN, "group commit failed, applying updates one by one: ${exception.message}")
+          .setBody(exchangeProperty("batch"))
+          .split(body())
+          .to("direct:sparql-update-single")
+          .end()
+          .transform(constant(List.of()))
+          .end()
+          .removeProperty("batch")
+          .split(body())
+          .to("direct:sparql-update-notify");
+    } else {
+      from("jms:queue:sparql-update")
+          .routeId("UpdateRoute::EntryPoint")
+          .bean(() -> this, "recordQueueLag")
+          .to("direct:sparql-update-single");
+    }
+
+    from("direct:sparql-update-single")
+        .routeId("UpdateRoute::Single")
         .setProperty("oldBody", body())
         .log(LoggingLevel.INFO, "receiving update query:\n${body}")
         .bean(() -> this, "process")
+        .to("direct:sparql-update-notify");
+
+    from("direct:sparql-update-notify")
+        .routeId("UpdateRoute::Notify")
         .choice()
         .when(simple("${body} > 0"))
         .log(LoggingLevel.DEBUG, "update done")
@@ -57,8 +118,57 @@ public class UpdateRouteBuilder extends RouteBuilder {
         .endChoice();
   }
 
+  public void recordQueueLag(@Header("JMSTimestamp") Long sentAt) {
+    if (sentAt != null && sentAt > 0) {
+      metrics.recordUpdateQueueLag(System.currentTimeMillis() - sentAt);
+    }
+  }
+
+  /**
+   * Group commit: the updates are received in a transacted session, up to
+   * maxMessages of them within maxWaitMs of the first one. The session is
+   * committed, which acknowledges them, once the group went through the
+   * group-commit route: a crash before leaves them in the queue.
+   */
+  public void receiveGroup() {
+    jmsTemplate.execute(session -> {
+      try (var consumer = session.createConsumer(session.createQueue(UPDATE_QUEUE))) {
+        var queries = new ArrayList<String>();
+        long deadline = System.currentTimeMillis() + 1000;
+        long remaining;
+        while (queries.size() < groupCommitMaxMessages && (remaining = deadline - System.currentTimeMillis()) > 0) {
+          var message = consumer.receive(remaining);
+          if (message == null) {
+            break;
+          }
+          if (queries.isEmpty()) {
+            deadline = System.currentTimeMillis() + groupCommitMaxWaitMs;
+          }
+          recordQueueLag(message.getJMSTimestamp());
+          queries.add(message.getBody(String.class));
+        }
+        if (!queries.isEmpty()) {
+          producerTemplate.sendBody("direct:sparql-update-group-commit", queries);
+        }
+        session.commit();
+      } catch (JMSException | RuntimeException exc) {
+        session.rollback();
+        throw exc;
+      }
+      return null;
+    }, true);
+  }
+
   public long process(@Body String query) {
     var summary = sparqlClient.executeUpdateQuery(query);
     return summary.getCountAddData() + summary.getCountDeleteData();
   }
+
+  public List<Long> processBatch(@Body List<String> queries) {
+    log.info("group commit of {} update queries", queries.size());
+    return sparqlClient.executeUpdateQueries(queries)
+        .stream()
+        .map(summary -> summary.getCountAddData() + summary.getCountDeleteData())
+        .toList();
+  }
 }
@@ -0,0 +1,52 @@
+package tech.artcoded.triplestore.tdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Collects parsed triples into fixed size batches and hands each full batch
+ * over as soon as it is complete, so memory stays bounded by the batch size
+ * whatever the size of the input. Quads are loaded as triples, the target
+ * graph is decided by the consumer.
+ */
+public class BatchingStreamRDF extends StreamRDFBase {
+  private final int batchSize;
+  private final Consumer<List<Triple>> onBatch;
+  private List<Triple> batch;
+
+  public BatchingStreamRDF(int batchSize, Consumer<List<Triple>> onBatch) {
+    this.batchSize = batchSize;
+    this.onBatch = onBatch;
+    this.batch = new ArrayList<>(batchSize);
+  }
+
+  @Override
+  public void triple(Triple triple) {
+    batch.add(triple);
+    if (batch.size() >= batchSize) {
+      flush();
+    }
+  }
+
+  @Override
+  public void quad(Quad quad) {
+    triple(quad.asTriple());
+  }
+
+  @Override
+  public void finish() {
+    flush();
+  }
+
+  private void flush() {
+    if (!batch.isEmpty()) {
+      var full = batch;
+      batch = new ArrayList<>(batchSize);
+      onBatch.accept(full);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package tech.artcoded.triplestore.tdb;
+
+import java.util.Map;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/admin/compaction")
+public class CompactionEndpoint {
+  private final TDBCompactor compactor;
+
+  public CompactionEndpoint(TDBCompactor compactor) {
+    this.compactor = compactor;
+  }
+
+  /**
+   * starts a compaction in the background, its report is available with GET
+   * once done
+   */
+  @PostMapping
+  public ResponseEntity<Map<String, Object>> compact() {
+    if (!compactor.compactAsync("admin")) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "a compaction is already running"));
+    }
+    return ResponseEntity.accepted().body(Map.of("running", true));
+  }
+
+  @GetMapping
+  public ResponseEntity<Map<String, Object>> status() {
+    return ResponseEntity.ok(compactor.getLastReport()
+        .<Map<String, Object>>map(report -> Map.of("running", compactor.isRunning(), "lastReport", report))
+        .orElseGet(() -> Map.of("running", compactor.isRunning())));
+  }
+}
@@ -0,0 +1,181 @@
+package tech.artcoded.triplestore.tdb;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.query.QueryType;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFWriterRegistry;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.riot.resultset.ResultSetLang;
+
+/**
+ * Picks the response format of a query from the Accept header (q-values,
+ * wildcards, most specific range wins), falling back to the default format
+ * of the query type instead of 406.
+ */
+public interface ContentNegotiation {
+  record Format(String mediaType, Lang lang) {
+  }
+
+  /**
+   * media types of the result formats in server preference order, the first
+   * one is the default. Aliases commonly sent by clients are included.
+   */
+  List<Format> RESULT_FORMATS = formats(
+      Stream.of(ResultSetLang.RS_JSON, ResultSetLang.RS_XML, ResultSetLang.RS_CSV, ResultSetLang.RS_TSV,
+          ResultSetLang.RS_Text, ResultSetLang.RS_Thrift, ResultSetLang.RS_Protobuf),
+      Map.of("application/json", ResultSetLang.RS_JSON,
+          "application/xml", ResultSetLang.RS_XML,
+          "text/xml", ResultSetLang.RS_XML));
+
+  /**
+   * the binary result formats have no encoding for booleans
+   */
+  List<Format> BOOLEAN_FORMATS = RESULT_FORMATS.stream()
+      .filter(format -> !ResultSetLang.RS_Thrift.equals(format.lang()))
+      .filter(format -> !ResultSetLang.RS_Protobuf.equals(format.lang()))
+      .toList();
+
+  List<Format> GRAPH_FORMATS = formats(
+      Stream.concat(Stream.of(Lang.TURTLE, Lang.NTRIPLES, Lang.JSONLD, Lang.RDFXML, Lang.RDFTHRIFT, Lang.RDFPROTO),
+          RDFLanguages.getRegisteredLanguages().stream()
+              .filter(lang -> !RDFLanguages.RDFNULL.equals(lang))
+              .filter(lang -> !ResultSetLang.isRegistered(lang))
+              .filter(ContentNegotiation::canWriteGraph)),
+      Map.of("application/json", Lang.JSONLD,
+          "application/xml", Lang.RDFXML,
+          "text/xml", Lang.RDFXML));
+
+  /**
+   * graph formats with a streaming writer, for the graph store downloads.
+   * Turtle is written in blocks, without nesting.
+   */
+  List<Format> GRAPH_STREAM_FORMATS = GRAPH_FORMATS.stream()
+      .filter(format -> StreamRDFWriter.registered(format.lang()))
+      .toList();
+
+  Cache<String, Lang> DECISIONS = Caffeine.newBuilder()
+      .maximumSize(10_000)
+      .build();
+
+  /**
+   * @return the format the result of a query of this type is written in
+   */
+  static Lang negotiate(String accept, QueryType queryType) {
+    var formats = switch (queryType) {
+      case SELECT -> RESULT_FORMATS;
+      case ASK -> BOOLEAN_FORMATS;
+      default -> GRAPH_FORMATS;
+    };
+    return negotiate(accept, queryType.name(), formats);
+  }
+
+  /**
+   * @return the format a graph is streamed in
+   */
+  static Lang negotiateGraphStream(String accept) {
+    return negotiate(accept, "GRAPH_STREAM", GRAPH_STREAM_FORMATS);
+  }
+
+  private static Lang negotiate(String accept, String key, List<Format> formats) {
+    if (StringUtils.isBlank(accept)) {
+      return formats.getFirst().lang();
+    }
+    return DECISIONS.get(key + "\n" + accept, _ -> negotiate(parseAccept(accept), formats));
+  }
+
+  /**
+   * @return the format with the highest q-value, on a tie the one whose range
+   *         comes first in the header, then the server preference
+   */
+  private static Lang negotiate(List<MediaRange> ranges, List<Format> formats) {
+    Format best = null;
+    MediaRange bestRange = null;
+    for (var format : formats) {
+      var range = ranges.stream()
+          .filter(r -> r.matches(format.mediaType()))
+          .max((r1, r2) -> Integer.compare(r1.specificity(), r2.specificity()))
+          .orElse(null);
+      if (range == null || range.q() <= 0) {
+        continue;
+      }
+      if (bestRange == null || range.q() > bestRange.q()
+          || (range.q() == bestRange.q() && range.position() < bestRange.position())) {
+        best = format;
+        bestRange = range;
+      }
+    }
+    return (best != null ? best : formats.getFirst()).lang();
+  }
+
+  record MediaRange(String type, String subtype, double q, int position) {
+    boolean matches(String mediaType) {
+      if ("*".equals(type)) {
+        return true;
+      }
+      int slash = mediaType.indexOf('/');
+      return type.equals(mediaType.substring(0, slash))
+          && ("*".equals(subtype) || subtype.equals(mediaType.substring(slash + 1)));
+    }
+
+    int specificity() {
+      return "*".equals(type) ? 0 : "*".equals(subtype) ? 1 : 2;
+    }
+  }
+
+  /**
+   * Malformed ranges and q-values are ignored.
+   */
+  static List<MediaRange> parseAccept(String accept) {
+    var ranges = new ArrayList<MediaRange>();
+    String[] elements = accept.split(",");
+    for (int i = 0; i < elements.length; i++) {
+      String[] parts = elements[i].split(";");
+      String mediaType = parts[0].trim().toLowerCase(Locale.ROOT);
+      int slash = mediaType.indexOf('/');
+      if (slash <= 0 || slash == mediaType.length() - 1) {
+        continue;
+      }
+      double q = 1;
+      for (int p = 1; p < parts.length; p++) {
+        String param = parts[p].trim();
+        if (param.regionMatches(true, 0, "q=", 0, 2)) {
+          try {
+            q = Math.clamp(Double.parseDouble(param.substring(2).trim()), 0, 1);
+          } catch (NumberFormatException exc) {
+            q = 1;
+          }
+        }
+      }
+      ranges.add(new MediaRange(mediaType.substring(0, slash), mediaType.substring(slash + 1), q, i));
+    }
+    return ranges;
+  }
+
+  private static List<Format> formats(Stream<Lang> langs, Map<String, Lang> aliases) {
+    var formats = new LinkedHashMap<String, Lang>();
+    langs.forEach(lang -> {
+      formats.putIfAbsent(lang.getContentType().getContentTypeStr().toLowerCase(Locale.ROOT), lang);
+      lang.getAltContentTypes().forEach(alt -> formats.putIfAbsent(alt.toLowerCase(Locale.ROOT), lang));
+    });
+    aliases.forEach(formats::putIfAbsent);
+    return Collections.unmodifiableList(formats.entrySet()
+        .stream()
+        .map(entry -> new Format(entry.getKey(), entry.getValue()))
+        .toList());
+  }
+
+  private static boolean canWriteGraph(Lang lang) {
+    var format = RDFWriterRegistry.defaultSerialization(lang);
+    return format != null && RDFWriterRegistry.getWriterGraphFactory(format) != null;
+  }
+}
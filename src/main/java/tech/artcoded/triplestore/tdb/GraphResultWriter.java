@@ -0,0 +1,88 @@
+package tech.artcoded.triplestore.tdb;
+
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.shared.PrefixMapping;
+import org.apache.jena.sparql.graph.GraphFactory;
+
+/**
+ * Writes the triples of a CONSTRUCT or DESCRIBE while the query produces
+ * them, for the languages with a streaming writer; the others still collect
+ * a graph. Streaming only removes the duplicates among the last dedupWindow
+ * distinct triples.
+ */
+public interface GraphResultWriter {
+
+  /**
+   * @param prefixes    the prefixes of the query, written first
+   * @param dedupWindow number of recent triples checked for duplicates, 0 to
+   *                    keep duplicates
+   * @param maxTriples  -1 for no limit
+   * @return the number of triples written
+   * @throws ResultTooLargeException as soon as the result has more than
+   *                                 maxTriples triples
+   */
+  static long write(Iterator<Triple> triples, PrefixMapping prefixes, OutputStream out, Lang lang, int dedupWindow,
+      long maxTriples) {
+    try {
+      if (!StreamRDFWriter.registered(lang)) {
+        Graph graph = GraphFactory.createDefaultGraph();
+        graph.getPrefixMapping().setNsPrefixes(prefixes);
+        long count = copy(triples, graph::add, dedupWindow, maxTriples);
+        RDFDataMgr.write(out, graph, lang);
+        return count;
+      }
+      StreamRDF stream = StreamRDFWriter.getWriterStream(out, lang);
+      stream.start();
+      prefixes.getNsPrefixMap().forEach(stream::prefix);
+      long count = copy(triples, stream::triple, dedupWindow, maxTriples);
+      stream.finish();
+      return count;
+    } finally {
+      Iter.close(triples);
+    }
+  }
+
+  private static long copy(Iterator<Triple> triples, Consumer<Triple> sink, int dedupWindow,
+      long maxTriples) {
+    Set<Triple> recent = dedupWindow > 0 ? window(dedupWindow) : null;
+    long count = 0;
+    while (triples.hasNext()) {
+      var triple = triples.next();
+      if (recent != null && !recent.add(triple)) {
+        continue;
+      }
+      if (maxTriples >= 0 && count == maxTriples) {
+        throw new ResultTooLargeException(
+            "the result has more than %d triples, narrow the query or page through it".formatted(maxTriples));
+      }
+      sink.accept(triple);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @return a set that forgets its eldest entry beyond size
+   */
+  private static Set<Triple> window(int size) {
+    return Collections.newSetFromMap(new LinkedHashMap<>(Math.min(size, 1 << 16), 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Triple, Boolean> eldest) {
+        return size() > size;
+      }
+    });
+  }
+}
@@ -0,0 +1,495 @@
+package tech.artcoded.triplestore.tdb;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecutionDatasetBuilder;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.rdfpatch.changes.RDFChangesBase;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpExtend;
+import org.apache.jena.sparql.algebra.op.OpGraph;
+import org.apache.jena.sparql.algebra.op.OpGroup;
+import org.apache.jena.sparql.algebra.op.OpProject;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ResultSetStream;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.aggregate.AggCount;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Materialized COUNT(*) aggregates over a single triple pattern, e.g.
+ * <code>SELECT ?type (COUNT(*) AS ?count) { ?s a ?type } GROUP BY ?type</code>.
+ * A view is evaluated once, in a read transaction, then every committed write
+ * adds the quads it inserted and subtracts the ones it deleted. A query with
+ * the same algebra is answered from the counts.
+ */
+@Component
+@Slf4j
+public class MaterializedViews {
+  private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+  public record ViewInfo(String name, String query, int groups) {
+  }
+
+  public record Rows(List<Var> vars, List<Binding> rows) {
+    public void writeTo(OutputStream out, Lang lang) {
+      ResultSetFormatter.output(out, ResultSetStream.create(vars, rows.iterator()), lang);
+    }
+  }
+
+  private final Dataset ds;
+  private final StoreWriter writer;
+  private final Path dir;
+  private final boolean unionDefaultGraph;
+  private final long timeout;
+  private final Map<String, View> views = new ConcurrentHashMap<>();
+  // being evaluated: maintained by the writes, not answering queries yet
+  private final Map<String, View> pending = new ConcurrentHashMap<>();
+  // counts are changed by whole writes, readers never see half of one
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Counter hits;
+
+  public MaterializedViews(Dataset ds, StoreWriter writer,
+      @Value("${triplestore.views.dir}") String dir,
+      @Value("${triplestore.database.unionDefaultGraph}") boolean unionDefaultGraph,
+      @Value("${triplestore.query.timeout}") long timeout,
+      MeterRegistry meterRegistry) {
+    this.ds = ds;
+    this.writer = writer;
+    this.timeout = timeout;
+    this.dir = Path.of(dir);
+    this.unionDefaultGraph = unionDefaultGraph;
+    Gauge.builder("triplestore.views", views, Map::size)
+        .description("registered materialized views")
+        .register(meterRegistry);
+    this.hits = Counter.builder("triplestore.views.hits")
+        .description("queries answered from a materialized view")
+        .register(meterRegistry);
+  }
+
+  /**
+   * registers the views of the directory
+   */
+  @PostConstruct
+  public void load() throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return;
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : files.filter(file -> file.getFileName().toString().endsWith(".rq")).sorted().toList()) {
+        String name = file.getFileName().toString().replaceFirst("\\.rq$", "");
+        try {
+          var view = parse(name, Files.readString(file, StandardCharsets.UTF_8));
+          compute(view);
+          log.info("view {} loaded, {} groups", name, view.counts.size());
+        } catch (RuntimeException exc) {
+          log.error("view {} skipped: {}", name, exc.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * evaluates every view again, after a write that bypassed the
+   * transactions (bulk load)
+   */
+  public void refresh() {
+    List.copyOf(views.values()).forEach(view -> compute(parse(view.name, view.query)));
+  }
+
+  /**
+   * Evaluates the view and stores its definition. Until it is evaluated, a
+   * view it replaces keeps answering.
+   *
+   * @throws IllegalArgumentException when the name or the query is not
+   *                                  supported
+   */
+  public ViewInfo register(String name, String query) {
+    var view = parse(name, query);
+    compute(view);
+    try {
+      Files.createDirectories(dir);
+      Files.writeString(dir.resolve(name + ".rq"), query, StandardCharsets.UTF_8);
+    } catch (IOException exc) {
+      throw new UncheckedIOException(exc);
+    }
+    log.info("view {} registered, {} groups", name, view.counts.size());
+    return info(view);
+  }
+
+  /**
+   * @return false when the view is unknown
+   */
+  public boolean remove(String name) {
+    pending.remove(name);
+    if (views.remove(name) == null) {
+      return false;
+    }
+    try {
+      Files.deleteIfExists(dir.resolve(name + ".rq"));
+    } catch (IOException exc) {
+      throw new UncheckedIOException(exc);
+    }
+    log.info("view {} removed", name);
+    return true;
+  }
+
+  public List<ViewInfo> list() {
+    return views.values().stream().map(this::info).toList();
+  }
+
+  /**
+   * @throws NoSuchElementException when the view is unknown
+   */
+  public Rows rows(String name) {
+    return Optional.ofNullable(views.get(name))
+        .map(this::rows)
+        .orElseThrow(() -> new NoSuchElementException("view %s is unknown".formatted(name)));
+  }
+
+  /**
+   * @param op the compiled algebra of the query
+   * @return the rows of the view with the same algebra as the query, if any
+   */
+  public Optional<Rows> answer(Query query, Op op) {
+    if (views.isEmpty() || !query.isSelectType() || !query.hasAggregators() || query.hasDatasetDescription()) {
+      return Optional.empty();
+    }
+    return views.values()
+        .stream()
+        .filter(view -> view.op.equals(op))
+        .findFirst()
+        .map(view -> {
+          hits.increment();
+          return rows(view);
+        });
+  }
+
+  /**
+   * @param dsg the dataset graph the write goes to, in its transaction
+   * @return the collector of the changes of the write, null when there is no
+   *         view to maintain
+   */
+  public Changes changes(DatasetGraph dsg) {
+    if (views.isEmpty() && pending.isEmpty()) {
+      return null;
+    }
+    // a view moving out of pending may be seen in both
+    return new Changes(dsg, Stream.concat(views.values().stream(), pending.values().stream()).distinct().toList());
+  }
+
+  /**
+   * applies the changes of a committed write
+   */
+  public void apply(Changes changes) {
+    if (changes == null || changes.deltas.isEmpty()) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      changes.deltas.forEach((view, deltas) -> deltas.entrySet()
+          .stream()
+          .filter(delta -> delta.getValue() != 0)
+          .forEach(delta -> view.counts.merge(delta.getKey(), delta.getValue(),
+              (count, d) -> count + d == 0 ? null : count + d)));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private Rows rows(View view) {
+    var rows = new ArrayList<Binding>();
+    lock.readLock().lock();
+    try {
+      if (view.groupVars.isEmpty()) {
+        // no GROUP BY: a single row, even when nothing matches
+        rows.add(BindingFactory.binding(view.countVar, count(view.counts.getOrDefault(List.of(), 0L))));
+      } else {
+        view.counts.forEach((key, count) -> {
+          var row = BindingFactory.builder();
+          for (int i = 0; i < key.size(); i++) {
+            row.add(view.groupVars.get(i), key.get(i));
+          }
+          rows.add(row.add(view.countVar, count(count)).build());
+        });
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return new Rows(view.vars, rows);
+  }
+
+  private static Node count(long count) {
+    return NodeFactory.createLiteralDT(Long.toString(count), XSDDatatype.XSDinteger);
+  }
+
+  private ViewInfo info(View view) {
+    lock.readLock().lock();
+    try {
+      return new ViewInfo(view.name, view.query, view.counts.size());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void compute(View view) {
+    // no write runs meanwhile: the ones before are in the snapshot, the ones after maintain the view
+    writer.execute(() -> {
+      ds.begin(TxnType.READ);
+      pending.put(view.name, view);
+    });
+    try (var execution = QueryExecutionDatasetBuilder.create()
+        .query(view.parsed)
+        .dataset(ds)
+        .timeout(timeout, TimeUnit.SECONDS)
+        .build()) {
+      var evaluated = new HashMap<List<Node>, Long>();
+      var results = execution.execSelect();
+      while (results.hasNext()) {
+        var row = results.nextBinding();
+        long count = ((Number) row.get(view.countVar).getLiteralValue()).longValue();
+        if (count > 0) {
+          evaluated.put(view.groupVars.stream().map(row::get).toList(), count);
+        }
+      }
+      lock.writeLock().lock();
+      try {
+        // on top of the writes committed during the evaluation
+        evaluated.forEach((key, count) -> view.counts.merge(key, count,
+            (delta, c) -> delta + c == 0 ? null : delta + c));
+        views.put(view.name, view);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      pending.remove(view.name, view);
+      ds.end();
+    }
+  }
+
+  View parse(String name, String sparql) {
+    if (name == null || !NAME.matcher(name).matches()) {
+      throw new IllegalArgumentException("the name of a view is made of letters, digits, '-' and '_'");
+    }
+    Query query;
+    try {
+      query = QueryFactory.create(sparql);
+    } catch (QueryParseException exc) {
+      throw new IllegalArgumentException(exc.getMessage(), exc);
+    }
+    if (!query.isSelectType() || query.hasDatasetDescription() || query.hasValues()) {
+      throw unsupported();
+    }
+    // project(extend(?count := ?.0, group(vars, count(*), [graph] bgp(one triple))))
+    if (!(Algebra.compile(query) instanceof OpProject project
+        && project.getSubOp() instanceof OpExtend extend
+        && extend.getSubOp() instanceof OpGroup group
+        && extend.getVarExprList().size() == 1
+        && group.getAggregators().size() == 1
+        && group.getAggregators().getFirst().getAggregator() instanceof AggCount)) {
+      throw unsupported();
+    }
+    Var countVar = extend.getVarExprList().getVars().getFirst();
+    if (!(extend.getVarExprList().getExpr(countVar) instanceof ExprVar aggregate
+        && aggregate.asVar().equals(group.getAggregators().getFirst().getVar()))) {
+      throw unsupported();
+    }
+    Op pattern = group.getSubOp();
+    Node graph = null;
+    if (pattern instanceof OpGraph opGraph) {
+      graph = opGraph.getNode();
+      pattern = opGraph.getSubOp();
+    }
+    if (!(pattern instanceof OpBGP bgp && bgp.getPattern().size() == 1)) {
+      throw unsupported();
+    }
+    Triple triple = bgp.getPattern().get(0);
+    Set<Var> patternVars = new HashSet<>();
+    Stream.of(graph, triple.getSubject(), triple.getPredicate(), triple.getObject())
+        .filter(node -> node instanceof Var)
+        .forEach(node -> patternVars.add((Var) node));
+    var groupVars = group.getGroupVars();
+    if (!groupVars.getVars().stream().allMatch(v -> groupVars.getExpr(v) == null && patternVars.contains(v))) {
+      throw new IllegalArgumentException("a view can only be grouped by variables of its pattern");
+    }
+    if (!project.getVars().stream().allMatch(v -> v.equals(countVar) || groupVars.contains(v))) {
+      throw unsupported();
+    }
+    return new View(name, sparql, query, project.getVars(), groupVars.getVars(), countVar, graph, triple,
+        graph == null && unionDefaultGraph);
+  }
+
+  private static IllegalArgumentException unsupported() {
+    return new IllegalArgumentException(
+        "a view must be a SELECT of COUNT(*) over a single triple pattern, optionally in a GRAPH, grouped by"
+            + " variables of the pattern, without FROM, VALUES, HAVING, ORDER BY or LIMIT");
+  }
+
+  private static final class View {
+    private final String name;
+    private final String query;
+    private final Query parsed;
+    private final Op op;
+    private final List<Var> vars;
+    private final List<Var> groupVars;
+    private final Var countVar;
+    // null for the default graph of the queries, a variable or a graph name otherwise
+    private final Node graph;
+    private final Triple pattern;
+    private final boolean union;
+    // group key -> count, guarded by the lock
+    private final Map<List<Node>, Long> counts = new HashMap<>();
+
+    View(String name, String query, Query parsed, List<Var> vars, List<Var> groupVars, Var countVar, Node graph,
+        Triple pattern, boolean union) {
+      this.name = name;
+      this.query = query;
+      this.parsed = parsed;
+      this.op = Algebra.compile(parsed);
+      this.vars = vars;
+      this.groupVars = groupVars;
+      this.countVar = countVar;
+      this.graph = graph;
+      this.pattern = pattern;
+      this.union = union;
+    }
+
+    /**
+     * @return the group key of the quad, null when it does not match
+     */
+    List<Node> key(Node g, Node s, Node p, Node o) {
+      boolean defaultGraph = Quad.isDefaultGraph(g);
+      var bindings = new HashMap<Var, Node>();
+      boolean matches = switch (graph) {
+        case null -> union != defaultGraph;
+        case Var var -> !defaultGraph && bind(bindings, var, g);
+        default -> graph.equals(g);
+      };
+      if (!matches || !bind(bindings, pattern.getSubject(), s) || !bind(bindings, pattern.getPredicate(), p)
+          || !bind(bindings, pattern.getObject(), o)) {
+        return null;
+      }
+      return groupVars.stream().map(bindings::get).toList();
+    }
+
+    private static boolean bind(Map<Var, Node> bindings, Node pattern, Node value) {
+      if (pattern instanceof Var var) {
+        return value.equals(bindings.computeIfAbsent(var, _ -> value));
+      }
+      return pattern.equals(value);
+    }
+  }
+
+  /**
+   * Collects the changes of one write. It is called before each change is
+   * made, so the store still shows the state the change applies to.
+   */
+  public static final class Changes extends RDFChangesBase {
+    private final DatasetGraph dsg;
+    private final Collection<View> views;
+    private final Map<View, Map<List<Node>, Long>> deltas = new HashMap<>();
+
+    Changes(DatasetGraph dsg, Collection<View> views) {
+      this.dsg = dsg;
+      this.views = views;
+    }
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+      change(g, s, p, o, 1);
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+      change(g, s, p, o, -1);
+    }
+
+    private void change(Node g, Node s, Node p, Node o, long delta) {
+      Boolean effective = null;
+      Boolean elsewhere = null;
+      for (View view : views) {
+        var key = view.key(g, s, p, o);
+        if (key == null) {
+          continue;
+        }
+        if (effective == null) {
+          // an add of a quad already there or a delete of a missing one changes nothing
+          effective = dsg.contains(g, s, p, o) == (delta < 0);
+        }
+        if (!effective) {
+          return;
+        }
+        if (view.union) {
+          if (elsewhere == null) {
+            elsewhere = inAnotherGraph(g, s, p, o);
+          }
+          if (elsewhere) {
+            continue;
+          }
+        }
+        deltas.computeIfAbsent(view, _ -> new HashMap<>()).merge(key, delta, Long::sum);
+      }
+    }
+
+    /**
+     * @return true when a named graph other than g has the triple, the union
+     *         graph has it either way
+     */
+    private boolean inAnotherGraph(Node g, Node s, Node p, Node o) {
+      var quads = dsg.find(Node.ANY, s, p, o);
+      try {
+        while (quads.hasNext()) {
+          Node other = quads.next().getGraph();
+          if (!other.equals(g) && !Quad.isDefaultGraph(other)) {
+            return true;
+          }
+        }
+        return false;
+      } finally {
+        Iter.close(quads);
+      }
+    }
+  }
+}
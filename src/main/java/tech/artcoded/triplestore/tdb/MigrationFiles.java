@@ -0,0 +1,126 @@
+package tech.artcoded.triplestore.tdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Stream;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.jena.atlas.io.IO;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Files of the migration directory: rdf files, optionally gzipped, and sparql
+ * updates (.sparql). The graph of an rdf file is read from its sidecar,
+ * data.graph for data.ttl or data.ttl.gz, when the file is applied: quads in
+ * a named graph are refused. Applied files are moved to the .camel sub
+ * directory.
+ */
+public interface MigrationFiles {
+  String SIDECAR_EXTENSION = "graph";
+  String ARCHIVE_DIR = ".camel";
+
+  /**
+   * @return the rdf and sparql files of the directory, sorted by name, hidden
+   *         files and sidecars excluded
+   */
+  static List<Path> list(Path dir) throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(Files::isRegularFile)
+          .filter(file -> !file.getFileName().toString().startsWith("."))
+          .filter(file -> isSparql(file) || langOf(file) != null)
+          .sorted()
+          .toList();
+    }
+  }
+
+  static boolean isSparql(Path file) {
+    return "sparql".equalsIgnoreCase(FilenameUtils.getExtension(uncompressedName(file)));
+  }
+
+  /**
+   * @return the rdf syntax of the file, binary ones included (.rt, .rpb),
+   *         null for anything else
+   */
+  static Lang langOf(Path file) {
+    String name = uncompressedName(file);
+    return SIDECAR_EXTENSION.equalsIgnoreCase(FilenameUtils.getExtension(name)) ? null
+        : RDFLanguages.filenameToLang(name);
+  }
+
+  static Path sidecarOf(Path file) {
+    return file.resolveSibling(FilenameUtils.getBaseName(uncompressedName(file)) + "." + SIDECAR_EXTENSION);
+  }
+
+  /**
+   * @return true for the syntaxes that only carry quads, trig and n-quads:
+   *         the bulk loaders would load them into their own graphs
+   */
+  static boolean isQuads(Path file) {
+    Lang lang = langOf(file);
+    return lang != null && RDFLanguages.isQuads(lang) && !RDFLanguages.isTriples(lang);
+  }
+
+  /**
+   * @return the sink, failing on a quad in a named graph instead of
+   *         flattening it into the graph of the file
+   */
+  static StreamRDF triplesOnly(StreamRDF sink, Path file) {
+    return new StreamRDFWrapper(sink) {
+      @Override
+      public void quad(Quad quad) {
+        if (!quad.isDefaultGraph()) {
+          throw new RiotException("%s has triples in the named graph %s, use one file per graph and its sidecar"
+              .formatted(file.getFileName(), quad.getGraph()));
+        }
+        triple(quad.asTriple());
+      }
+    };
+  }
+
+  static Path archiveOf(Path file) {
+    return file.resolveSibling(ARCHIVE_DIR).resolve(file.getFileName());
+  }
+
+  /**
+   * moves the file, and the sidecar of an rdf file, to the archive directory,
+   * over their previous version
+   */
+  static void archive(Path file) throws IOException {
+    Files.createDirectories(archiveOf(file).getParent());
+    Files.move(file, archiveOf(file), StandardCopyOption.REPLACE_EXISTING);
+    Path sidecar = sidecarOf(file);
+    if (!isSparql(file) && Files.isRegularFile(sidecar)) {
+      Files.move(sidecar, archiveOf(sidecar), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * @return the graph of the sidecar, the default graph without one
+   */
+  static String graphOf(Path file, String defaultGraph) throws IOException {
+    Path sidecar = sidecarOf(file);
+    if (Files.isRegularFile(sidecar)) {
+      return Files.readString(sidecar, StandardCharsets.UTF_8).trim();
+    }
+    return defaultGraph;
+  }
+
+  /**
+   * data.ttl.gz is handled as data.ttl, the stream is decompressed by
+   * IO.openFileEx
+   */
+  static String uncompressedName(Path file) {
+    return IO.filenameNoCompression(file.getFileName().toString());
+  }
+}
@@ -0,0 +1,129 @@
+package tech.artcoded.triplestore.tdb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.system.Txn;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Persisted record of the applied migration files, one json line per file,
+ * so a file is applied once even when the directory is provisioned again. A
+ * file is skipped when its size and modification time, or else its content
+ * hash, match the ledger.
+ */
+@Component
+@Slf4j
+public class MigrationLedger {
+  /**
+   * @param graph   null for sparql updates
+   * @param triples triples added and deleted, the triples of the file when
+   *                bulk loaded
+   */
+  public record Entry(String file, String hash, String graph, long size, long lastModified, long triples,
+      long durationMs, Instant appliedAt) {
+  }
+
+  private final Path path;
+  private final ObjectMapper objectMapper;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  public MigrationLedger(@Value("${triplestore.migration.ledger}") String path, ObjectMapper objectMapper,
+      Dataset ds) throws IOException {
+    this.path = Path.of(path);
+    this.objectMapper = objectMapper;
+    if (!Files.isRegularFile(this.path)) {
+      return;
+    }
+    try (var lines = Files.lines(this.path, StandardCharsets.UTF_8)) {
+      lines.filter(line -> !line.isBlank()).forEach(line -> {
+        try {
+          var entry = objectMapper.readValue(line, Entry.class);
+          entries.put(entry.file(), entry);
+        } catch (IOException exc) {
+          // a line cut by a crash, its file is applied again
+          log.warn("skipping a malformed line of the migration ledger: {}", exc.getMessage());
+        }
+      });
+    }
+    if (!entries.isEmpty() && Txn.calculateRead(ds, () -> ds.asDatasetGraph().isEmpty())) {
+      // the store was reset without its ledger, the files must be applied again
+      Path stale = this.path.resolveSibling(this.path.getFileName() + ".stale-" + System.currentTimeMillis());
+      Files.move(this.path, stale, StandardCopyOption.REPLACE_EXISTING);
+      log.warn("the dataset is empty, the migration ledger ({} files) was moved to {}", entries.size(), stale);
+      entries.clear();
+      return;
+    }
+    log.info("migration ledger {}: {} files applied", path, entries.size());
+  }
+
+  public Optional<Entry> get(String file) {
+    return Optional.ofNullable(entries.get(file));
+  }
+
+  /**
+   * @param graph the graph the file would be loaded into, null for sparql
+   *              updates
+   */
+  public boolean isApplied(Path file, String graph) throws IOException {
+    var entry = entries.get(file.getFileName().toString());
+    if (entry == null || !Objects.equals(entry.graph(), graph)) {
+      return false;
+    }
+    long size = Files.size(file);
+    long lastModified = lastModified(file);
+    if (entry.size() == size && entry.lastModified() == lastModified) {
+      return true;
+    }
+    if (!entry.hash().equals(hash(file))) {
+      return false;
+    }
+    // same content, copied or touched: the next checks take the fast path
+    append(new Entry(entry.file(), entry.hash(), entry.graph(), size, lastModified, entry.triples(),
+        entry.durationMs(), entry.appliedAt()));
+    return true;
+  }
+
+  /**
+   * appends the file to the ledger once its changes are committed
+   */
+  public Entry record(Path file, String graph, long triples, long durationNanos) {
+    try {
+      return append(new Entry(file.getFileName().toString(), hash(file), graph, Files.size(file),
+          lastModified(file), triples, TimeUnit.NANOSECONDS.toMillis(durationNanos), Instant.now()));
+    } catch (IOException exc) {
+      throw new UncheckedIOException(exc);
+    }
+  }
+
+  private synchronized Entry append(Entry entry) throws IOException {
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    Files.writeString(path, objectMapper.writeValueAsString(entry) + "\n", StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+    entries.put(entry.file(), entry);
+    return entry;
+  }
+
+  static String hash(Path file) throws IOException {
+    return com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha256()).toString();
+  }
+
+  static long lastModified(Path file) throws IOException {
+    return Files.getLastModifiedTime(file).toMillis();
+  }
+}
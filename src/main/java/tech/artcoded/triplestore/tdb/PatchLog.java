@@ -0,0 +1,496 @@
+package tech.artcoded.triplestore.tdb;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Append-only log of the committed writes, one RDF Patch per write
+ * transaction, numbered from 1 and carrying its version and timestamp as
+ * headers. Segments roll past maxSegmentBytes and the ones older than the
+ * last retainedPatches patches are deleted.
+ * <p>
+ * A patch is written before the commit and closed (TC) after it. When that
+ * fails, or the process stopped in between, the log is marked broken and the
+ * followers stop.
+ */
+@Component
+@Slf4j
+public class PatchLog {
+  private static final Pattern SEGMENT = Pattern.compile("patch-(\\d{20})\\.rdfp");
+  private static final Pattern VERSION_HEADER = Pattern.compile("H version \"(\\d+)\" \\.");
+  private static final Pattern TIMESTAMP_HEADER = Pattern.compile("H timestamp \"(\\d+)\" \\.");
+  private static final byte[] COMMIT = "TC .\n".getBytes(StandardCharsets.UTF_8);
+  private static final String BROKEN_FILE = "BROKEN";
+  private static final String PENDING_FILE = "pending";
+
+  record Position(Path segment, long offset, long length, long timestamp) {
+  }
+
+  private final boolean enabled;
+  private final boolean writable;
+  private final Path dir;
+  private final long maxSegmentBytes;
+  private final long retainedPatches;
+  private final ConcurrentNavigableMap<Long, Position> index = new ConcurrentSkipListMap<>();
+
+  private Counter appendFailures;
+  private FileChannel segment;
+  private Path segmentPath;
+  private Append current;
+  private volatile String broken;
+  // end of the last complete patch, where scanning resumes for readers
+  private Path scannedSegment;
+  private long scannedOffset;
+
+  @Autowired
+  public PatchLog(@Value("${triplestore.replication.patchLog.enabled}") boolean enabled,
+      @Value("${triplestore.replication.patchLog.dir}") String dir,
+      @Value("${triplestore.replication.patchLog.maxSegmentBytes}") long maxSegmentBytes,
+      @Value("${triplestore.replication.patchLog.retainedPatches}") long retainedPatches,
+      MeterRegistry meterRegistry) {
+    this(enabled, true, Path.of(dir), maxSegmentBytes, retainedPatches);
+    Gauge.builder("triplestore.replication.log.version", this, PatchLog::version)
+        .description("version of the last patch in the patch log")
+        .register(meterRegistry);
+    Gauge.builder("triplestore.replication.log.broken", this, patchLog -> patchLog.isBroken() ? 1 : 0)
+        .description("1 when a committed write is missing from the patch log, the followers are stopped")
+        .register(meterRegistry);
+    this.appendFailures = Counter.builder("triplestore.replication.log.failures")
+        .description("committed writes that could not be appended to the patch log")
+        .register(meterRegistry);
+    if (enabled) {
+      log.info("patch log in {}, at version {}", dir, version());
+    }
+  }
+
+  private PatchLog(boolean enabled, boolean writable, Path dir, long maxSegmentBytes, long retainedPatches) {
+    this.enabled = enabled;
+    this.writable = writable;
+    this.dir = dir;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.retainedPatches = Math.max(retainedPatches, 1);
+    if (enabled) {
+      try {
+        if (writable) {
+          Files.createDirectories(dir);
+        }
+        refresh();
+        if (writable) {
+          recover();
+        }
+      } catch (IOException exc) {
+        throw new UncheckedIOException(exc);
+      }
+    }
+  }
+
+  /**
+   * @return a read-only view of the log of another instance, see refresh()
+   */
+  public static PatchLog reader(Path dir) {
+    return new PatchLog(true, false, dir, Long.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public boolean isBroken() {
+    return broken != null;
+  }
+
+  /**
+   * @return the version of the last patch, 0 when the log is empty
+   */
+  public long version() {
+    return index.isEmpty() ? 0 : index.lastKey();
+  }
+
+  /**
+   * Starts the patch of a write transaction. Its changes are written to the
+   * segment as they come, prepare() must succeed before the store commits
+   * and commit() is called once it did. Closed without commit(), the patch
+   * is rolled back.
+   *
+   * @return null when the log is disabled or broken, nothing is recorded
+   *         anymore
+   */
+  public synchronized Append begin() throws IOException {
+    if (!writable) {
+      throw new IllegalStateException("the patch log of another instance is read-only");
+    }
+    if (!enabled || broken != null) {
+      return null;
+    }
+    if (current != null) {
+      throw new IllegalStateException("patch %d is not closed".formatted(current.version));
+    }
+    long version = version() + 1;
+    if (segment == null || segment.size() >= maxSegmentBytes) {
+      roll(version);
+    }
+    current = new Append(version, segment.size());
+    return current;
+  }
+
+  /**
+   * Appends the changes as one patch.
+   *
+   * @param changes the A, D, PA and PD lines of the transaction
+   * @return the version of the patch, -1 when the log is broken
+   */
+  public long append(byte[] changes) throws IOException {
+    try (var append = begin()) {
+      if (append == null) {
+        return -1;
+      }
+      append.output().write(changes);
+      if (!append.prepare()) {
+        return version();
+      }
+      append.commit();
+      return isBroken() ? -1 : append.version;
+    }
+  }
+
+  public class Append implements AutoCloseable {
+    private final long version;
+    private final long offset;
+    private final long timestamp = System.currentTimeMillis();
+    private final CountingOutputStream out;
+    private final long headerLength;
+    private boolean prepared;
+    private boolean committed;
+
+    private Append(long version, long offset) throws IOException {
+      this.version = version;
+      this.offset = offset;
+      segment.position(offset);
+      // the channel stays open, the stream is only flushed
+      this.out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(segment), 1 << 16));
+      out.write("H version \"%d\" .\nH timestamp \"%d\" .\nTX .\n".formatted(version, timestamp)
+          .getBytes(StandardCharsets.UTF_8));
+      this.headerLength = out.getCount();
+    }
+
+    public OutputStream output() {
+      return out;
+    }
+
+    /**
+     * Forces the changes to disk and records the version as pending, so a
+     * crash before commit() is detected at the next start.
+     *
+     * @return false when there is no change, nothing is recorded
+     */
+    public boolean prepare() throws IOException {
+      if (out.getCount() == headerLength) {
+        return false;
+      }
+      out.flush();
+      segment.force(false);
+      try (var channel = FileChannel.open(dir.resolve(PENDING_FILE), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        channel.write(ByteBuffer.wrap(Long.toString(version).getBytes(StandardCharsets.US_ASCII)));
+        channel.force(false);
+      }
+      prepared = true;
+      return true;
+    }
+
+    /**
+     * Called once the store committed, it cannot be rolled back anymore: a
+     * failure marks the log broken instead of being thrown, so the caller
+     * does not retry a write that was applied.
+     */
+    public void commit() {
+      if (!prepared) {
+        return;
+      }
+      synchronized (PatchLog.this) {
+        try {
+          long end = offset + out.getCount();
+          var buffer = ByteBuffer.wrap(COMMIT);
+          while (buffer.hasRemaining()) {
+            segment.write(buffer, end + buffer.position());
+          }
+          segment.force(false);
+          end += COMMIT.length;
+          index.put(version, new Position(segmentPath, offset, end - offset, timestamp));
+          scannedSegment = segmentPath;
+          scannedOffset = end;
+          committed = true;
+          if (version - index.firstKey() >= retainedPatches) {
+            index.headMap(version - retainedPatches, true).clear();
+          }
+        } catch (IOException | RuntimeException exc) {
+          markBroken("patch %d was committed but could not be appended: %s".formatted(version, exc));
+          return;
+        }
+        try {
+          Files.deleteIfExists(dir.resolve(PENDING_FILE));
+        } catch (IOException exc) {
+          log.warn("could not delete the pending marker of patch {}: {}", version, exc.getMessage());
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      synchronized (PatchLog.this) {
+        current = null;
+        if (committed) {
+          return;
+        }
+        try {
+          segment.truncate(offset);
+          Files.deleteIfExists(dir.resolve(PENDING_FILE));
+        } catch (IOException exc) {
+          markBroken("patch %d could not be rolled back: %s".formatted(version, exc));
+        }
+      }
+    }
+  }
+
+  /**
+   * A pending version that was not appended may have been committed by the
+   * store before the process stopped.
+   */
+  private void recover() throws IOException {
+    Path pending = dir.resolve(PENDING_FILE);
+    if (broken == null && Files.isRegularFile(pending)) {
+      long version = Long.parseLong(Files.readString(pending).trim());
+      if (version > version()) {
+        markBroken("the process stopped while patch %d was committed, it may be missing".formatted(version));
+      }
+    }
+    Files.deleteIfExists(pending);
+  }
+
+  private void markBroken(String reason) {
+    broken = reason;
+    log.error("the patch log is broken, followers are stopped and must be seeded again: {}", reason);
+    if (appendFailures != null) {
+      appendFailures.increment();
+    }
+    try {
+      Files.writeString(dir.resolve(BROKEN_FILE), reason);
+    } catch (IOException exc) {
+      log.error("could not mark the patch log broken on disk", exc);
+    }
+  }
+
+  /**
+   * @throws IllegalStateException when the patch following after is not in
+   *                               the log anymore, or the log is broken
+   */
+  public void checkAvailable(long after) {
+    if (broken != null) {
+      throw new IllegalStateException("the patch log is broken, seed this follower again: " + broken);
+    }
+    var first = index.ceilingKey(after + 1);
+    if (first != null && first != after + 1) {
+      throw new IllegalStateException("patch %d is not in the log, it starts at %d".formatted(after + 1, first));
+    }
+  }
+
+  /**
+   * Copies the patches following after, at most max of them. A reader then
+   * forgets the patches up to after, followers do not go back.
+   *
+   * @return the number of patches copied
+   * @throws IllegalStateException see checkAvailable()
+   */
+  public int read(long after, int max, OutputStream out) throws IOException {
+    checkAvailable(after);
+    if (!writable) {
+      index.headMap(after, true).clear();
+    }
+    var target = Channels.newChannel(out);
+    FileChannel channel = null;
+    Path opened = null;
+    int count = 0;
+    try {
+      for (Map.Entry<Long, Position> entry : index.tailMap(after, false).entrySet()) {
+        if (count == max) {
+          break;
+        }
+        var position = entry.getValue();
+        if (!position.segment().equals(opened)) {
+          if (channel != null) {
+            channel.close();
+          }
+          channel = FileChannel.open(position.segment(), StandardOpenOption.READ);
+          opened = position.segment();
+        }
+        long copied = 0;
+        while (copied < position.length()) {
+          long n = channel.transferTo(position.offset() + copied, position.length() - copied, target);
+          if (n <= 0) {
+            throw new IOException("patch %d is truncated in %s".formatted(entry.getKey(), position.segment()));
+          }
+          copied += n;
+        }
+        count++;
+      }
+    } finally {
+      if (channel != null) {
+        channel.close();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the commit time of a patch in epoch millis, null when unknown
+   */
+  public Long timestampOf(long version) {
+    var position = index.get(version);
+    return position == null ? null : position.timestamp();
+  }
+
+  /**
+   * Indexes the patches appended since the last scan, by another instance
+   * when this is a reader. Incomplete patches at the end are left for the
+   * next refresh, the patches of deleted segments are forgotten.
+   */
+  public synchronized void refresh() throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return;
+    }
+    Path brokenFile = dir.resolve(BROKEN_FILE);
+    if (broken == null && Files.isRegularFile(brokenFile)) {
+      broken = Files.readString(brokenFile);
+    }
+    List<Path> segments = segments();
+    if (!segments.isEmpty()) {
+      index.headMap(firstVersionOf(segments.getFirst()), false).clear();
+    }
+    for (Path file : segments) {
+      if (scannedSegment != null && file.compareTo(scannedSegment) < 0) {
+        continue;
+      }
+      long from = file.equals(scannedSegment) ? scannedOffset : 0;
+      scannedOffset = scan(file, from);
+      scannedSegment = file;
+    }
+    if (writable && scannedSegment != null) {
+      // appends go on in the last segment, after its last complete patch
+      openSegment(scannedSegment);
+      segment.truncate(scannedOffset);
+    }
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(file -> SEGMENT.matcher(file.getFileName().toString()).matches())
+          .sorted()
+          .toList();
+    }
+  }
+
+  private static long firstVersionOf(Path segment) {
+    var matcher = SEGMENT.matcher(segment.getFileName().toString());
+    return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+  }
+
+  /**
+   * @return the end of the last complete patch
+   */
+  private long scan(Path file, long from) throws IOException {
+    long end = from;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+      in.skipNBytes(from);
+      long offset = from;
+      long start = from;
+      long version = -1;
+      long timestamp = 0;
+      // only the header and commit lines matter, they are short and ascii
+      var line = new ByteArrayOutputStream(64);
+      int b;
+      while ((b = in.read()) >= 0) {
+        offset++;
+        if (b != '\n') {
+          if (line.size() < 64) {
+            line.write(b);
+          }
+          continue;
+        }
+        String text = line.toString(StandardCharsets.US_ASCII);
+        line.reset();
+        Matcher matcher;
+        if ((matcher = VERSION_HEADER.matcher(text)).matches()) {
+          start = offset - text.length() - 1;
+          version = Long.parseLong(matcher.group(1));
+        } else if ((matcher = TIMESTAMP_HEADER.matcher(text)).matches()) {
+          timestamp = Long.parseLong(matcher.group(1));
+        } else if (text.equals("TC .") && version > 0) {
+          index.put(version, new Position(file, start, offset - start, timestamp));
+          end = offset;
+          version = -1;
+        }
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Starts a new segment and deletes the ones whose patches are all older
+   * than the retained ones.
+   */
+  private void roll(long firstVersion) throws IOException {
+    openSegment(dir.resolve("patch-%020d.rdfp".formatted(firstVersion)));
+    log.info("patch log segment {}", segmentPath);
+    long oldest = firstVersion - retainedPatches;
+    var segments = segments();
+    for (int i = 0; i + 1 < segments.size() && firstVersionOf(segments.get(i + 1)) <= oldest; i++) {
+      Files.deleteIfExists(segments.get(i));
+      log.info("patch log segment {} deleted", segments.get(i));
+    }
+    index.headMap(oldest, false).clear();
+  }
+
+  private void openSegment(Path path) throws IOException {
+    if (segment != null) {
+      segment.close();
+    }
+    segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    segmentPath = path;
+  }
+
+  @PreDestroy
+  public synchronized void close() throws IOException {
+    if (segment != null) {
+      segment.close();
+      segment = null;
+    }
+  }
+}
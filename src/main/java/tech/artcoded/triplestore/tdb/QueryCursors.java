@@ -0,0 +1,302 @@
+package tech.artcoded.triplestore.tdb;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionDatasetBuilder;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ResultSetStream;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Server-side cursors over SELECT results: later pages continue the iterator
+ * of the first one, on the same snapshot. A TDB2 transaction belongs to its
+ * thread, so each cursor has its own thread. Idle cursors are closed after
+ * idleTimeout, and at most maxOpen are open at once.
+ */
+@Component
+@Slf4j
+public class QueryCursors {
+  /**
+   * @param cursor the token of the next page, null on the last one
+   */
+  public record Page(List<Var> vars, List<Binding> rows, String cursor) {
+    public void writeTo(OutputStream out, Lang lang) {
+      ResultSetFormatter.output(out, ResultSetStream.create(vars, rows.iterator()), lang);
+    }
+  }
+
+  private final Dataset ds;
+  private final long timeout;
+  private final long idleTimeoutNanos;
+  private final int maxOpen;
+  private final int maxPageSize;
+
+  private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+  private final AtomicInteger open = new AtomicInteger();
+  private volatile boolean suspended;
+  private final MeterRegistry meterRegistry;
+  private final Counter rejected;
+  private final Timer pages;
+
+  public QueryCursors(Dataset ds,
+      @Value("${triplestore.query.timeout}") long timeout,
+      @Value("${triplestore.query.cursor.idleTimeoutMs}") long idleTimeoutMs,
+      @Value("${triplestore.query.cursor.maxOpen}") int maxOpen,
+      @Value("${triplestore.query.cursor.maxPageSize}") int maxPageSize,
+      MeterRegistry meterRegistry) {
+    this.ds = ds;
+    this.timeout = timeout;
+    this.idleTimeoutNanos = Duration.ofMillis(idleTimeoutMs).toNanos();
+    this.maxOpen = maxOpen;
+    this.maxPageSize = Math.max(maxPageSize, 1);
+    this.meterRegistry = meterRegistry;
+    Gauge.builder("triplestore.query.cursors.open", open, AtomicInteger::get)
+        .description("open cursors, each holding a read transaction")
+        .register(meterRegistry);
+    this.rejected = Counter.builder("triplestore.query.cursors.rejected")
+        .description("cursors not opened because maxOpen were open")
+        .register(meterRegistry);
+    this.pages = Timer.builder("triplestore.query.cursor.page")
+        .description("time to read a page of a cursor")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+
+  /**
+   * Executes the query and reads its first page.
+   *
+   * @throws QueryRejectedException when maxOpen cursors are open
+   */
+  public Page open(Query query, String client, int pageSize) {
+    if (!query.isSelectType()) {
+      throw new IllegalArgumentException("cursors are only supported for SELECT queries");
+    }
+    if (suspended) {
+      rejected.increment();
+      throw new QueryRejectedException("cursors are suspended during a compaction, try again later");
+    }
+    if (open.incrementAndGet() > maxOpen) {
+      open.decrementAndGet();
+      rejected.increment();
+      throw new QueryRejectedException("too many open cursors, try again later");
+    }
+    var cursor = new Cursor(UUID.randomUUID().toString(), client, query);
+    cursors.put(cursor.id, cursor);
+    try {
+      cursor.call(() -> {
+        ds.begin(TxnType.READ);
+        cursor.execution = QueryExecutionDatasetBuilder.create().query(query).dataset(ds).build();
+        cursor.results = cursor.execution.execSelect();
+        cursor.vars = Var.varList(cursor.results.getResultVars());
+        return null;
+      });
+      return next(cursor, pageSize);
+    } catch (RuntimeException exc) {
+      close(cursor, "failed");
+      throw exc;
+    }
+  }
+
+  /**
+   * @throws NoSuchElementException when the cursor is unknown, expired or
+   *                                belongs to another client
+   * @throws QueryRejectedException when a page of the cursor is being read
+   */
+  public Page next(String id, String client, int pageSize) {
+    return next(find(id, client), pageSize);
+  }
+
+  /**
+   * @return the query of the cursor, to admit its next page
+   * @throws NoSuchElementException see next()
+   */
+  public Query query(String id, String client) {
+    return find(id, client).query;
+  }
+
+  /**
+   * @return false when the cursor is unknown, expired or belongs to another
+   *         client
+   */
+  public boolean close(String id, String client) {
+    try {
+      close(find(id, client), "closed");
+      return true;
+    } catch (NoSuchElementException exc) {
+      return false;
+    }
+  }
+
+  private Cursor find(String id, String client) {
+    var cursor = cursors.get(id);
+    if (cursor == null || !cursor.client.equals(client)) {
+      throw new NoSuchElementException("cursor %s is unknown or expired".formatted(id));
+    }
+    return cursor;
+  }
+
+  private Page next(Cursor cursor, int pageSize) {
+    int size = Math.clamp(pageSize, 1, maxPageSize);
+    long start = System.nanoTime();
+    try {
+      var page = cursor.call(() -> {
+        var rows = new ArrayList<Binding>(Math.min(size, 1024));
+        while (rows.size() < size && cursor.results.hasNext()) {
+          // resolves the nodes while the transaction is open
+          rows.add(BindingFactory.copy(cursor.results.nextBinding()));
+        }
+        return new Page(cursor.vars, rows, cursor.results.hasNext() ? cursor.id : null);
+      });
+      if (page.cursor() == null) {
+        close(cursor, "exhausted");
+      }
+      return page;
+    } catch (QueryRejectedException exc) {
+      // another request is reading a page, the cursor is theirs to close
+      throw exc;
+    } catch (RuntimeException exc) {
+      close(cursor, "failed");
+      throw exc;
+    } finally {
+      pages.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${triplestore.query.cursor.sweepIntervalMs}")
+  public void expire() {
+    long now = System.nanoTime();
+    cursors.values()
+        .stream()
+        .filter(cursor -> now - cursor.lastAccess > idleTimeoutNanos)
+        // a page being read is not expired under it
+        .filter(cursor -> cursor.busy.compareAndSet(false, true))
+        .forEach(cursor -> close(cursor, "expired"));
+  }
+
+  /**
+   * Closes the open cursors and refuses new ones until resume(), their read
+   * transactions would hold back the compaction.
+   */
+  public void suspend() {
+    suspended = true;
+    cursors.values().forEach(cursor -> close(cursor, "suspended"));
+  }
+
+  public void resume() {
+    suspended = false;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    cursors.values().forEach(cursor -> close(cursor, "closed"));
+  }
+
+  private void close(Cursor cursor, String outcome) {
+    if (cursors.remove(cursor.id, cursor)) {
+      open.decrementAndGet();
+      cursor.close();
+      Counter.builder("triplestore.query.cursors")
+          .description("cursors closed, by outcome: exhausted, closed, expired, suspended or failed")
+          .tag("outcome", outcome)
+          .register(meterRegistry)
+          .increment();
+      log.debug("cursor {} {}", cursor.id, outcome);
+    }
+  }
+
+  private final class Cursor {
+    private final String id;
+    private final String client;
+    private final Query query;
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(
+        Thread.ofVirtual().name("cursor-", 0).factory());
+    private volatile long lastAccess = System.nanoTime();
+    private final AtomicBoolean busy = new AtomicBoolean();
+    // aborted from other threads, otherwise only used on the thread of the cursor
+    private volatile QueryExecution execution;
+    private ResultSet results;
+    private List<Var> vars;
+
+    Cursor(String id, String client, Query query) {
+      this.id = id;
+      this.client = client;
+      this.query = query;
+    }
+
+    <T> T call(Callable<T> task) {
+      if (!busy.compareAndSet(false, true)) {
+        throw new QueryRejectedException("a page of cursor %s is being read".formatted(id));
+      }
+      var future = thread.submit(task);
+      try {
+        return future.get(timeout, TimeUnit.SECONDS);
+      } catch (TimeoutException exc) {
+        abort();
+        throw new RuntimeException("cursor page timed out after %s seconds".formatted(timeout), exc);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+        abort();
+        throw new RuntimeException(exc);
+      } catch (ExecutionException exc) {
+        throw new RuntimeException(exc.getCause());
+      } finally {
+        lastAccess = System.nanoTime();
+        busy.set(false);
+      }
+    }
+
+    private void abort() {
+      var running = execution;
+      if (running != null) {
+        running.abort();
+      }
+    }
+
+    /**
+     * runs after a page still in progress, if any
+     */
+    void close() {
+      abort();
+      thread.execute(() -> {
+        if (execution != null) {
+          execution.close();
+        }
+        if (ds.isInTransaction()) {
+          ds.end();
+        }
+      });
+      thread.shutdown();
+    }
+  }
+}
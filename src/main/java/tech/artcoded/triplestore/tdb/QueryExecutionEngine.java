@@ -0,0 +1,214 @@
+package tech.artcoded.triplestore.tdb;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs read queries on a dedicated executor instead of the common pool.
+ * At most threads queries run at once and at most queueDepth wait for a
+ * slot; anything beyond is rejected right away.
+ * <p>
+ * Streamed queries run on the thread that writes the response, not on the
+ * executor, but take the same slots through {@link #admit()}.
+ */
+@Component
+@Slf4j
+public class QueryExecutionEngine {
+  enum Type {
+    PLATFORM, VIRTUAL
+  }
+
+  private final ExecutorService executor;
+  private final Semaphore admitted;
+  private final Semaphore running;
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final Counter aborted;
+  private final Counter rejected;
+  private final Timer queueWait;
+
+  public QueryExecutionEngine(@Value("${triplestore.query.executor.type}") Type type,
+      @Value("${triplestore.query.executor.threads}") int threads,
+      @Value("${triplestore.query.executor.queueDepth}") int queueDepth,
+      MeterRegistry meterRegistry) {
+    this.executor = switch (type) {
+      case PLATFORM -> Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("query-", 0).factory());
+      case VIRTUAL -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("query-", 0).factory());
+    };
+    this.admitted = new Semaphore(threads + queueDepth);
+    this.running = new Semaphore(threads, true);
+    Gauge.builder("triplestore.query.active", active, AtomicInteger::get)
+        .description("queries being executed")
+        .register(meterRegistry);
+    Gauge.builder("triplestore.query.queued", queued, AtomicInteger::get)
+        .description("queries waiting for an execution slot")
+        .register(meterRegistry);
+    this.aborted = Counter.builder("triplestore.query.aborted")
+        .description("queries aborted after a timeout")
+        .register(meterRegistry);
+    this.rejected = Counter.builder("triplestore.query.rejected")
+        .description("queries rejected because the queue was full")
+        .register(meterRegistry);
+    this.queueWait = Timer.builder("triplestore.query.queue.wait")
+        .description("time a query waited for an execution slot")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    log.info("query execution engine: {} threads, queue depth {}", type, queueDepth);
+  }
+
+  /**
+   * @param onTimeout called when the timeout expires, must stop the running
+   *                  query (e.g. QueryExecution.abort())
+   * @throws QueryRejectedException when the queue is full
+   */
+  public <T> T execute(Callable<T> task, long timeout, TimeUnit unit, Runnable onTimeout) {
+    if (!admitted.tryAcquire()) {
+      rejected.increment();
+      throw new QueryRejectedException("too many queries in progress, try again later");
+    }
+    queued.incrementAndGet();
+    var result = new CompletableFuture<T>();
+    try {
+      long submitted = System.nanoTime();
+      executor.execute(() -> run(task, result, submitted));
+    } catch (RuntimeException exc) {
+      queued.decrementAndGet();
+      admitted.release();
+      throw exc;
+    }
+    try {
+      return result.get(timeout, unit);
+    } catch (TimeoutException e) {
+      aborted.increment();
+      // a query still waiting for a slot is skipped, a running one is aborted
+      result.cancel(false);
+      onTimeout.run();
+      throw new RuntimeException("query timed out after %s %s".formatted(timeout, unit), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.cancel(false);
+      onTimeout.run();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException runtime ? runtime : new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Takes a queue slot for a query run later on the calling thread, so that a
+   * full queue is rejected before the response starts.
+   *
+   * @throws QueryRejectedException when the queue is full
+   */
+  public Admission admit() {
+    if (!admitted.tryAcquire()) {
+      rejected.increment();
+      throw new QueryRejectedException("too many queries in progress, try again later");
+    }
+    queued.incrementAndGet();
+    return new Admission(System.nanoTime());
+  }
+
+  /**
+   * A queued query, closed once it ran or when it is given up before running,
+   * possibly from another thread.
+   */
+  public class Admission implements AutoCloseable {
+    private final long submitted;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    private Admission(long submitted) {
+      this.submitted = submitted;
+    }
+
+    /**
+     * waits at most timeout for an execution slot, then runs the task on the
+     * calling thread
+     */
+    public <T> T run(Supplier<T> task, long timeout, TimeUnit unit) {
+      if (!claimed.compareAndSet(false, true)) {
+        throw new IllegalStateException("query already run or given up");
+      }
+      boolean acquired = false;
+      try {
+        acquired = running.tryAcquire(timeout, unit);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } finally {
+        queued.decrementAndGet();
+        if (!acquired) {
+          admitted.release();
+        }
+      }
+      if (!acquired) {
+        aborted.increment();
+        throw new RuntimeException("query timed out after %s %s waiting for a slot".formatted(timeout, unit));
+      }
+      queueWait.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+      active.incrementAndGet();
+      try {
+        return task.get();
+      } finally {
+        active.decrementAndGet();
+        running.release();
+        admitted.release();
+      }
+    }
+
+    @Override
+    public void close() {
+      if (claimed.compareAndSet(false, true)) {
+        queued.decrementAndGet();
+        admitted.release();
+      }
+    }
+  }
+
+  private <T> void run(Callable<T> task, CompletableFuture<T> result, long submitted) {
+    try {
+      running.acquire();
+    } catch (InterruptedException exc) {
+      queued.decrementAndGet();
+      admitted.release();
+      result.completeExceptionally(exc);
+      return;
+    }
+    queued.decrementAndGet();
+    queueWait.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+    active.incrementAndGet();
+    try {
+      if (!result.isDone()) {
+        result.complete(task.call());
+      }
+    } catch (Throwable exc) {
+      result.completeExceptionally(exc);
+    } finally {
+      active.decrementAndGet();
+      running.release();
+      admitted.release();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,11 @@
+package tech.artcoded.triplestore.tdb;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Result of an explain request. results, timeMs and profile are only set
+ * when the query was executed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record QueryPlan(String query, String algebra, Long results, Double timeMs, QueryProfile.Operator profile) {
+}
@@ -0,0 +1,146 @@
+package tech.artcoded.triplestore.tdb;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIteratorWrapper;
+import org.apache.jena.sparql.engine.main.OpExecutorFactory;
+import org.apache.jena.tdb2.solver.OpExecutorTDB2;
+import tech.artcoded.triplestore.sparql.AlgebraUtil;
+
+/**
+ * Collects, for each operator executed by TDB2, how many times it was
+ * evaluated, its rows and the time spent pulling them, children included.
+ * One instance per execution, not thread safe.
+ */
+public class QueryProfile {
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public record Operator(String name, String detail, long calls, Long rows, Double timeMs,
+      List<Operator> children) {
+  }
+
+  private static class Stats {
+    long calls;
+    long rows;
+    long nanos;
+  }
+
+  private final Map<Op, Stats> stats = new IdentityHashMap<>();
+  // operators being evaluated, the last one is the parent of any operator executed now
+  private final Deque<Op> evaluating = new ArrayDeque<>();
+  private final Set<Op> planned = Collections.newSetFromMap(new IdentityHashMap<>());
+  private Op root;
+
+  public OpExecutorFactory executorFactory() {
+    return ProfilingOpExecutor::new;
+  }
+
+  /**
+   * @return the algebra as executed, after the optimizer and the quad form
+   *         transformation
+   */
+  public Optional<Op> root() {
+    return Optional.ofNullable(root);
+  }
+
+  public Optional<Operator> tree() {
+    return root().map(this::operator);
+  }
+
+  private Operator operator(Op op) {
+    var opStats = stats.get(op);
+    var children = AlgebraUtil.children(op);
+    String detail = switch (op) {
+      case OpFilter filter -> filter.getExprs().toString();
+      default -> children.isEmpty() ? op.toString().replaceAll("\\s+", " ").trim() : null;
+    };
+    return new Operator(op.getName(), detail,
+        opStats == null ? 0 : opStats.calls,
+        opStats == null ? null : opStats.rows,
+        opStats == null ? null : Math.round(opStats.nanos / 1_000d) / 1_000d,
+        children.stream().map(this::operator).toList());
+  }
+
+  private void plan(Op op) {
+    planned.add(op);
+    AlgebraUtil.children(op).forEach(this::plan);
+  }
+
+  /**
+   * @return the operator of the plan the executed operator stands for
+   */
+  private Op planned(Op op) {
+    if (planned.contains(op) || evaluating.isEmpty()) {
+      return op;
+    }
+    return AlgebraUtil.children(evaluating.peekLast())
+        .stream()
+        .filter(child -> child.getName().equals(op.getName()))
+        .findFirst()
+        .orElse(op);
+  }
+
+  private <T> T evaluating(Op op, Stats opStats, Supplier<T> evaluation) {
+    evaluating.addLast(op);
+    long start = System.nanoTime();
+    try {
+      return evaluation.get();
+    } finally {
+      opStats.nanos += System.nanoTime() - start;
+      evaluating.removeLast();
+    }
+  }
+
+  private class ProfilingOpExecutor extends OpExecutorTDB2 {
+    ProfilingOpExecutor(ExecutionContext execCxt) {
+      super(execCxt);
+    }
+
+    @Override
+    protected QueryIterator exec(Op op, QueryIterator input) {
+      if (root == null) {
+        root = op;
+        plan(op);
+      }
+      Op planned = planned(op);
+      var opStats = stats.computeIfAbsent(planned, _ -> new Stats());
+      opStats.calls++;
+      var iterator = evaluating(planned, opStats, () -> super.exec(op, input));
+      return new ProfilingIterator(iterator, planned, opStats);
+    }
+  }
+
+  private class ProfilingIterator extends QueryIteratorWrapper {
+    private final Op op;
+    private final Stats stats;
+
+    ProfilingIterator(QueryIterator iterator, Op op, Stats stats) {
+      super(iterator);
+      this.op = op;
+      this.stats = stats;
+    }
+
+    @Override
+    protected boolean hasNextBinding() {
+      return evaluating(op, stats, super::hasNextBinding);
+    }
+
+    @Override
+    protected Binding moveToNextBinding() {
+      stats.rows++;
+      return evaluating(op, stats, super::moveToNextBinding);
+    }
+  }
+}
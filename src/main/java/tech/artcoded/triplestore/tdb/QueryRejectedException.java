@@ -0,0 +1,10 @@
+package tech.artcoded.triplestore.tdb;
+
+/**
+ * thrown when a query cannot be admitted, the endpoint answers 503.
+ */
+public class QueryRejectedException extends RuntimeException {
+  public QueryRejectedException(String message) {
+    super(message);
+  }
+}
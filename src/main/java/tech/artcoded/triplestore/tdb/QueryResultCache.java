@@ -0,0 +1,175 @@
+package tech.artcoded.triplestore.tdb;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.query.Query;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tech.artcoded.triplestore.sparql.SparqlResult;
+
+/**
+ * Bounded cache of serialized query results. Entries are tagged with the
+ * dataset generation they were computed against and are ignored as soon as a
+ * commit changed the data.
+ */
+@Component
+@Slf4j
+public class QueryResultCache {
+  // functions whose result changes between two executions of the same algebra
+  private static final Pattern NON_DETERMINISTIC = Pattern
+      .compile("\\((now|rand|uuid|struuid|bnode|service)[ )]");
+
+  record CachedResult(long generation, String contentType, byte[] body) {
+  }
+
+  private final boolean enabled;
+  private final long maxEntryBytes;
+  private final Cache<String, CachedResult> cache;
+
+  public QueryResultCache(@Value("${triplestore.query.cache.enabled}") boolean enabled,
+      @Value("${triplestore.query.cache.maxBytes}") long maxBytes,
+      @Value("${triplestore.query.cache.maxEntryBytes}") long maxEntryBytes,
+      MeterRegistry meterRegistry) {
+    this.enabled = enabled;
+    this.maxEntryBytes = maxEntryBytes;
+    this.cache = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher((String key, CachedResult value) -> key.length() + value.body().length)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "sparql-results");
+  }
+
+  /**
+   * @return the cache key for the query and the negotiated language, or empty
+   *         if the query must not be cached
+   */
+  public Optional<String> key(Query q, Lang lang) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+    Op op;
+    try {
+      op = Algebra.compile(q);
+    } catch (Exception exc) {
+      log.debug("could not compile algebra, falling back to the serialized query", exc);
+      op = null;
+    }
+    return key(q, op, lang);
+  }
+
+  /**
+   * @param op the compiled algebra of the query, null to key on the
+   *           serialized query
+   */
+  public Optional<String> key(Query q, Op op, Lang lang) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+    var key = new StringBuilder(q.queryType().name()).append('\n');
+    if (q.isConstructType()) {
+      key.append(q.getConstructTemplate().getQuads()).append('\n');
+    } else if (q.isDescribeType()) {
+      key.append(q.getResultURIs()).append(q.getResultVars()).append('\n');
+    }
+    if (q.hasDatasetDescription()) {
+      // the algebra leaves FROM and FROM NAMED out
+      key.append("FROM ").append(q.getGraphURIs())
+          .append(" FROM NAMED ").append(q.getNamedGraphURIs()).append('\n');
+    }
+    key.append(op != null ? op : q.serialize());
+    if (NON_DETERMINISTIC.matcher(key).find()) {
+      return Optional.empty();
+    }
+    return Optional.of(key.append('\n').append(lang.getContentType().getContentTypeStr()).toString());
+  }
+
+  public Optional<SparqlResult> get(String key, long generation) {
+    var cached = cache.getIfPresent(key);
+    if (cached == null) {
+      return Optional.empty();
+    }
+    if (cached.generation() != generation) {
+      cache.invalidate(key);
+      return Optional.empty();
+    }
+    return Optional.of(SparqlResult.builder()
+        .contentType(cached.contentType())
+        .body(new ByteArrayInputStream(cached.body()))
+        .build());
+  }
+
+  public boolean accepts(long size) {
+    return size <= maxEntryBytes;
+  }
+
+  public void put(String key, long generation, String contentType, byte[] body) {
+    if (accepts(body.length)) {
+      cache.put(key, new CachedResult(generation, contentType, body));
+    }
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * wraps a response stream so that a copy of small results can be cached once
+   * they are fully written. The copy is dropped as soon as it grows past the
+   * entry limit.
+   */
+  public ResultCapture capture(OutputStream out) {
+    return new ResultCapture(out);
+  }
+
+  public class ResultCapture extends FilterOutputStream {
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    ResultCapture(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      if (copy != null) {
+        copy.write(b);
+        checkSize();
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (copy != null) {
+        copy.write(b, off, len);
+        checkSize();
+      }
+    }
+
+    private void checkSize() {
+      if (!accepts(copy.size())) {
+        copy = null;
+      }
+    }
+
+    public void cache(String key, long generation, String contentType) {
+      if (copy != null) {
+        put(key, generation, contentType, copy.toByteArray());
+      }
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package tech.artcoded.triplestore.tdb;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdfpatch.changes.RDFChangesBase;
+import org.apache.jena.rdfpatch.text.RDFPatchReaderText;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read replica: tails the patch log of the leader, a directory or its
+ * /admin/replication/patches endpoint, and applies batchSize patches per
+ * write transaction. The last applied version is kept in stateFile. It stops
+ * when the patches it needs are gone or the log is broken.
+ */
+@Component
+@Slf4j
+public class ReplicaFollower {
+  public enum Role {
+    LEADER, FOLLOWER
+  }
+
+  static final String VERSION_HEADER = "X-Patch-Log-Version";
+
+  record Batch(long leaderVersion, byte[] patches) {
+  }
+
+  private final TDBService tdbService;
+  private final Role role;
+  private final String source;
+  private final String authorization;
+  private final int batchSize;
+  private final Path stateFile;
+  private final Counter applied;
+
+  private PatchLog sourceLog;
+  private HttpClient httpClient;
+
+  private volatile long version;
+  private volatile long leaderVersion;
+  private volatile long lastAppliedTimestamp;
+  private volatile long caughtUpAt;
+  private volatile String stopped;
+
+  public ReplicaFollower(TDBService tdbService,
+      @Value("${triplestore.replication.role}") Role role,
+      @Value("${triplestore.replication.source}") String source,
+      @Value("${triplestore.replication.authorization}") String authorization,
+      @Value("${triplestore.replication.batchSize}") int batchSize,
+      @Value("${triplestore.replication.stateFile}") String stateFile,
+      MeterRegistry meterRegistry) throws IOException {
+    this.tdbService = tdbService;
+    this.role = role;
+    this.source = source;
+    this.authorization = authorization;
+    this.batchSize = Math.max(batchSize, 1);
+    this.stateFile = Path.of(stateFile);
+    this.applied = Counter.builder("triplestore.replication.patches.applied")
+        .description("patches of the leader applied by this follower")
+        .register(meterRegistry);
+    if (role != Role.FOLLOWER) {
+      return;
+    }
+    if (StringUtils.isBlank(source)) {
+      throw new IllegalStateException("triplestore.replication.source is required for a follower");
+    }
+    if (StringUtils.startsWithAny(source, "http://", "https://")) {
+      this.httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    } else {
+      this.sourceLog = PatchLog.reader(Path.of(source));
+    }
+    this.version = Files.isRegularFile(this.stateFile) ? Long.parseLong(Files.readString(this.stateFile).trim()) : 0;
+    Gauge.builder("triplestore.replication.lag.patches", this, f -> Math.max(f.leaderVersion - f.version, 0))
+        .description("patches of the leader not applied yet")
+        .register(meterRegistry);
+    Gauge.builder("triplestore.replication.lag", this, ReplicaFollower::lagSeconds)
+        .description("age of the data of the follower: since the commit of the last applied patch when behind, "
+            + "since the last poll that found nothing new otherwise")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+    Gauge.builder("triplestore.replication.stopped", this, f -> f.stopped != null ? 1 : 0)
+        .description("1 when the follower stopped on a gap in the patch log, it must be seeded again")
+        .register(meterRegistry);
+    log.info("following {} from version {}", source, version);
+  }
+
+  public boolean isFollower() {
+    return role == Role.FOLLOWER;
+  }
+
+  @Scheduled(fixedDelayString = "${triplestore.replication.pollIntervalMs}")
+  public void poll() {
+    if (role != Role.FOLLOWER || stopped != null) {
+      return;
+    }
+    try {
+      Batch batch;
+      do {
+        batch = fetch(version);
+        leaderVersion = batch.leaderVersion();
+        if (batch.patches().length > 0) {
+          apply(batch.patches());
+        }
+      } while (batch.patches().length > 0 && version < leaderVersion);
+      if (version >= leaderVersion) {
+        caughtUpAt = System.currentTimeMillis();
+      }
+    } catch (IllegalStateException exc) {
+      stopped = exc.getMessage();
+      log.error("replication from {} stopped at version {}, seed this follower again: {}", source, version,
+          stopped);
+    } catch (Exception exc) {
+      log.warn("could not replicate from {} at version {}: {}", source, version, exc.getMessage());
+    }
+  }
+
+  private Batch fetch(long after) throws IOException, InterruptedException {
+    if (sourceLog != null) {
+      sourceLog.refresh();
+      var patches = new ByteArrayOutputStream();
+      sourceLog.read(after, batchSize, patches);
+      return new Batch(sourceLog.version(), patches.toByteArray());
+    }
+    var request = HttpRequest.newBuilder(URI.create("%s?after=%d&max=%d".formatted(source, after, batchSize)))
+        .timeout(Duration.ofSeconds(60))
+        .GET();
+    if (StringUtils.isNotBlank(authorization)) {
+      request.header("Authorization", authorization);
+    }
+    var response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    if (response.statusCode() == 410) {
+      throw new IllegalStateException(new String(response.body(), StandardCharsets.UTF_8));
+    }
+    if (response.statusCode() != 200) {
+      throw new IOException("status %d: %s".formatted(response.statusCode(),
+          new String(response.body(), StandardCharsets.UTF_8)));
+    }
+    long leader = response.headers().firstValueAsLong(VERSION_HEADER)
+        .orElseThrow(() -> new IOException("missing " + VERSION_HEADER));
+    return new Batch(leader, response.body());
+  }
+
+  /**
+   * The versions are checked before anything is applied: a batch that does
+   * not follow the applied version is a gap.
+   */
+  private void apply(byte[] patches) throws IOException {
+    var headers = headersOf(patches);
+    if (headers.first != version + 1 || headers.last < headers.first) {
+      throw new IllegalStateException("expected the patches after %d, got versions %d to %d".formatted(version,
+          headers.first, headers.last));
+    }
+    tdbService.applyPatches(changes -> new RDFPatchReaderText(new ByteArrayInputStream(patches)).apply(changes));
+    applied.increment(headers.last - version);
+    version = headers.last;
+    lastAppliedTimestamp = headers.timestamp;
+    saveState();
+  }
+
+  static Headers headersOf(byte[] patches) {
+    var headers = new Headers();
+    new RDFPatchReaderText(new ByteArrayInputStream(patches)).apply(headers);
+    return headers;
+  }
+
+  /**
+   * version headers of a batch of patches, -1 when there is none
+   */
+  static class Headers extends RDFChangesBase {
+    long first = -1;
+    long last = -1;
+    long timestamp;
+
+    @Override
+    public void header(String field, Node value) {
+      switch (field) {
+        case "version" -> {
+          last = Long.parseLong(value.getLiteralLexicalForm());
+          if (first < 0) {
+            first = last;
+          }
+        }
+        case "timestamp" -> timestamp = Long.parseLong(value.getLiteralLexicalForm());
+        default -> {
+        }
+      }
+    }
+  }
+
+  private void saveState() throws IOException {
+    Path parent = stateFile.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tmp = Files.writeString(parent.resolve(stateFile.getFileName() + ".tmp"), Long.toString(version));
+    Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private double lagSeconds() {
+    long since = version >= leaderVersion ? caughtUpAt : lastAppliedTimestamp;
+    return since == 0 ? Double.NaN : Math.max(System.currentTimeMillis() - since, 0) / 1000d;
+  }
+
+  public Map<String, Object> status() {
+    var status = new LinkedHashMap<String, Object>();
+    status.put("role", role);
+    if (role == Role.FOLLOWER) {
+      status.put("source", source);
+      status.put("version", version);
+      status.put("leaderVersion", leaderVersion);
+      double lag = lagSeconds();
+      status.put("lagSeconds", Double.isNaN(lag) ? null : lag);
+      status.put("stopped", stopped);
+    }
+    return status;
+  }
+}
@@ -0,0 +1,59 @@
+package tech.artcoded.triplestore.tdb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Map;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+@RestController
+@RequestMapping("/admin/replication")
+public class ReplicationEndpoint {
+  private static final int MAX_PATCHES = 1000;
+
+  private final PatchLog patchLog;
+  private final ReplicaFollower follower;
+
+  public ReplicationEndpoint(PatchLog patchLog, ReplicaFollower follower) {
+    this.patchLog = patchLog;
+    this.follower = follower;
+  }
+
+  /**
+   * the patches following after, concatenated and copied from the segments
+   * as they are sent. The version of the last patch in the log is sent in the
+   * X-Patch-Log-Version header, followers fetch again until they reach it.
+   * 410 when the patches are not in the log anymore or the log is broken.
+   */
+  @GetMapping("/patches")
+  public ResponseEntity<StreamingResponseBody> patches(@RequestParam(value = "after", defaultValue = "0") long after,
+      @RequestParam(value = "max", defaultValue = "100") int max) {
+    if (!patchLog.isEnabled()) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    try {
+      patchLog.checkAvailable(after);
+    } catch (IllegalStateException exc) {
+      return ResponseEntity.status(HttpStatus.GONE).body(out -> out.write(exc.getMessage().getBytes(UTF_8)));
+    }
+    return ResponseEntity.ok()
+        .header(ReplicaFollower.VERSION_HEADER, Long.toString(patchLog.version()))
+        .header("Content-Type", "application/rdf-patch")
+        .body(out -> patchLog.read(after, Math.clamp(max, 1, MAX_PATCHES), out));
+  }
+
+  @GetMapping
+  public Map<String, Object> status() {
+    var status = follower.status();
+    if (patchLog.isEnabled()) {
+      status.put("patchLogVersion", patchLog.version());
+      status.put("patchLogBroken", patchLog.isBroken());
+    }
+    return status;
+  }
+}
@@ -0,0 +1,11 @@
+package tech.artcoded.triplestore.tdb;
+
+/**
+ * thrown when a query result goes over its configured limit, the endpoint
+ * answers 400.
+ */
+public class ResultTooLargeException extends RuntimeException {
+  public ResultTooLargeException(String message) {
+    super(message);
+  }
+}
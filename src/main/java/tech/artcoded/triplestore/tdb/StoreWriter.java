@@ -0,0 +1,50 @@
+package tech.artcoded.triplestore.tdb;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * The single writer of the store. TDB2 allows one write transaction at a
+ * time and cannot time out while waiting for it, so every write of the
+ * application takes this lock before beginning its transaction: updates and
+ * loads, text index rebuilds, view snapshots, bulk loads and compactions.
+ * A bounded wait on the lock is then a bounded wait for the store.
+ */
+@Component
+public class StoreWriter {
+  private final ReentrantLock lock = new ReentrantLock();
+
+  public void lock() {
+    lock.lock();
+  }
+
+  /**
+   * @return false when another write still holds the store after maxWait
+   */
+  public boolean tryLock(Duration maxWait) throws InterruptedException {
+    return lock.tryLock(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  public void unlock() {
+    lock.unlock();
+  }
+
+  public <T> T calculate(Supplier<T> write) {
+    lock.lock();
+    try {
+      return write.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void execute(Runnable write) {
+    calculate(() -> {
+      write.run();
+      return null;
+    });
+  }
+}
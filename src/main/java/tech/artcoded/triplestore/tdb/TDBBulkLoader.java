@@ -0,0 +1,202 @@
+package tech.artcoded.triplestore.tdb;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.apache.jena.system.progress.MonitorOutput;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.apache.jena.tdb2.loader.base.LoaderOps;
+import org.apache.jena.tdb2.loader.main.LoaderPlans;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Offline bulk load of the migration directory, while the application
+ * context starts. Loaded files are recorded in the migration ledger, then
+ * the text index and the views are rebuilt: the bulk loaders bypass them.
+ */
+@Component
+@Slf4j
+public class TDBBulkLoader {
+  enum Mode {
+    DISABLED, // never bulk load
+    AUTO, // bulk load when the dataset is empty
+    FORCE // always bulk load, even when the dataset already has data
+  }
+
+  /**
+   * TDB2 loaders. Their thread layout is fixed by TDB2: parallel builds every
+   * index in its own thread, phased and light use a few threads, sequential
+   * and basic a single one.
+   */
+  enum LoaderType {
+    BASIC, SEQUENTIAL, LIGHT, PHASED, PARALLEL
+  }
+
+  // progress logged every DATA_TICK triples, as tdb2.tdbloader does
+  private static final int DATA_TICK = 500_000;
+
+  private final Dataset ds;
+  private final StoreWriter writer;
+  private final ReplicaFollower replicaFollower;
+  private final PatchLog patchLog;
+  private final TextIndexer textIndexer;
+  private final MaterializedViews views;
+  private final MigrationLedger ledger;
+
+  @Value("${triplestore.bulkLoad.mode}")
+  private Mode mode;
+  @Value("${triplestore.bulkLoad.loader}")
+  private LoaderType loaderType;
+  @Value("${triplestore.migration.dir}")
+  private String migrationDir;
+  @Value("${triplestore.migration.defaultGraph}")
+  private String defaultGraph;
+
+  public TDBBulkLoader(Dataset ds, StoreWriter writer, ReplicaFollower replicaFollower, PatchLog patchLog,
+      TextIndexer textIndexer, MaterializedViews views, MigrationLedger ledger) {
+    this.ds = ds;
+    this.writer = writer;
+    this.replicaFollower = replicaFollower;
+    this.patchLog = patchLog;
+    this.textIndexer = textIndexer;
+    this.views = views;
+    this.ledger = ledger;
+  }
+
+  @PostConstruct
+  public void bulkLoad() {
+    if (mode == Mode.DISABLED || replicaFollower.isFollower()) {
+      return;
+    }
+    if (patchLog.isEnabled()) {
+      // the bulk loaders write to the indexes directly, replicas would never see the data
+      log.warn("bulk load skipped, the patch log is enabled: the migration route will load the files");
+      return;
+    }
+    if (mode == Mode.AUTO && !Txn.calculateRead(ds, () -> ds.asDatasetGraph().isEmpty())) {
+      log.info("dataset is not empty, skipping bulk load");
+      return;
+    }
+    Path dir = Path.of(migrationDir);
+    Map<String, List<Path>> filesByGraph = dataFilesByGraph(dir);
+    if (filesByGraph.isEmpty()) {
+      log.info("no data file to bulk load in {}", dir);
+      return;
+    }
+    long start = System.nanoTime();
+    long count = 0;
+    for (var entry : filesByGraph.entrySet()) {
+      long loadStart = System.nanoTime();
+      Map<Path, Long> counts = load(entry.getKey(), entry.getValue());
+      long nanos = System.nanoTime() - loadStart;
+      for (var loaded : counts.entrySet()) {
+        count += loaded.getValue();
+        ledger.record(loaded.getKey(), entry.getKey(), loaded.getValue(), nanos);
+        archive(loaded.getKey());
+      }
+    }
+    double seconds = Math.max(System.nanoTime() - start, 1) / 1_000_000_000d;
+    log.info("bulk loaded {} triples with the {} loader in {}s, {} triples/sec",
+        count, loaderType, "%.2f".formatted(seconds), Math.round(count / seconds));
+    textIndexer.rebuild("bulk load");
+    views.refresh();
+  }
+
+  private void archive(Path file) {
+    try {
+      MigrationFiles.archive(file);
+    } catch (IOException exc) {
+      // in the ledger, the migration route moves it
+      log.warn("could not move {} to {}: {}", file.getFileName(), MigrationFiles.ARCHIVE_DIR, exc.getMessage());
+    }
+  }
+
+  private Map<Path, Long> load(String graph, List<Path> files) {
+    return writer.calculate(() -> bulkLoad(graph, files));
+  }
+
+  /**
+   * @return the triples read from each file, in one bulk load: what
+   *         DataLoader.load does, with a count per file
+   */
+  Map<Path, Long> bulkLoad(String graph, List<Path> files) {
+    log.info("bulk loading {} into graph <{}>", files, graph);
+    MonitorOutput output = LoaderOps.outputToLog();
+    DataLoader loader = createLoader(TDBConfig.storage(ds), NodeFactory.createURI(graph), output);
+    var counts = new LinkedHashMap<Path, Long>();
+    loader.startBulk();
+    try {
+      for (Path file : files) {
+        var counted = StreamRDFLib.count(MigrationFiles.triplesOnly(loader.stream(), file));
+        LoaderOps.inputFile(counted, file.toString(), output, DATA_TICK, DATA_TICK * 10);
+        counts.put(file, counted.count());
+      }
+      loader.finishBulk();
+    } catch (RuntimeException exc) {
+      loader.finishException(exc);
+      throw exc;
+    }
+    return counts;
+  }
+
+  private DataLoader createLoader(DatasetGraph dsg, Node graph, MonitorOutput output) {
+    return switch (loaderType) {
+      case BASIC -> LoaderFactory.basicLoader(dsg, graph, output);
+      case SEQUENTIAL -> LoaderFactory.sequentialLoader(dsg, graph, output);
+      case LIGHT -> LoaderFactory.createLoader(LoaderPlans.loaderPlanLight, dsg, graph, output);
+      case PHASED -> LoaderFactory.phasedLoader(dsg, graph, output);
+      case PARALLEL -> LoaderFactory.parallelLoader(dsg, graph, output);
+    };
+  }
+
+  /**
+   * rdf files of the migration directory not in the ledger, sorted by name
+   * and grouped by the graph of their sidecar. Only the files before the
+   * first sparql update still to apply, or the first changed or quads file:
+   * the ones after it depend on it and are left to the migration route, which
+   * applies them in order, replaces the triples of a changed file and
+   * refuses named graphs.
+   */
+  @SneakyThrows
+  Map<String, List<Path>> dataFilesByGraph(Path dir) {
+    var filesByGraph = new LinkedHashMap<String, List<Path>>();
+    for (Path file : MigrationFiles.list(dir)) {
+      if (MigrationFiles.isSparql(file)) {
+        if (ledger.isApplied(file, null)) {
+          continue;
+        }
+        log.info("bulk load stops before {}, the files from there are applied by the migration route",
+            file.getFileName());
+        break;
+      }
+      String graph = MigrationFiles.graphOf(file, defaultGraph);
+      if (ledger.isApplied(file, graph)) {
+        continue;
+      }
+      if (ledger.get(file.getFileName().toString()).isPresent()) {
+        log.info("bulk load stops before {}, changed since it was applied", file.getFileName());
+        break;
+      }
+      if (MigrationFiles.isQuads(file)) {
+        log.info("bulk load stops before {}, a quads syntax", file.getFileName());
+        break;
+      }
+      filesByGraph.computeIfAbsent(graph, _ -> new ArrayList<>()).add(file);
+    }
+    return filesByGraph;
+  }
+}
@@ -0,0 +1,182 @@
+package tech.artcoded.triplestore.tdb;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Online compaction of the TDB2 database into a new generation (Data-NNNN).
+ * Reads go on meanwhile, writes wait for the store writer and the open
+ * cursors are closed.
+ */
+@Component
+@Slf4j
+public class TDBCompactor {
+  public record CompactionReport(Instant startedAt, String trigger, long sizeBefore, long sizeAfter,
+      long reclaimed, double durationSeconds, boolean deletedOld, Double readLatencyBeforeMs,
+      Double readLatencyDuringMs) {
+  }
+
+  private static final Pattern GENERATION = Pattern.compile("Data-\\d+");
+
+  private final Dataset ds;
+  private final StoreWriter writer;
+  private final QueryCursors cursors;
+  private final TriplestoreMetrics metrics;
+  private final TaskExecutor taskExecutor;
+  private final File databaseDir;
+  private final double growthRatio;
+  private final boolean deleteOld;
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  private volatile long baselineSize;
+  private volatile TriplestoreMetrics.LatencySnapshot lastSnapshot;
+  private volatile CompactionReport lastReport;
+
+  public TDBCompactor(Dataset ds, StoreWriter writer, QueryCursors cursors, TriplestoreMetrics metrics,
+      @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor,
+      @Value("${triplestore.database.dir}") String databaseDir,
+      @Value("${triplestore.compaction.growthRatio}") double growthRatio,
+      @Value("${triplestore.compaction.deleteOld}") boolean deleteOld) {
+    this.ds = ds;
+    this.writer = writer;
+    this.cursors = cursors;
+    this.metrics = metrics;
+    this.taskExecutor = taskExecutor;
+    this.databaseDir = new File(databaseDir);
+    this.growthRatio = growthRatio;
+    this.deleteOld = deleteOld;
+    this.baselineSize = size();
+    this.lastSnapshot = metrics.readLatency();
+  }
+
+  @Scheduled(cron = "${triplestore.compaction.cron}")
+  public void scheduledCompaction() {
+    compact("cron");
+  }
+
+  /**
+   * compacts when the database grew more than growthRatio times its size
+   * after the last compaction (or at startup)
+   */
+  @Scheduled(fixedDelayString = "${triplestore.compaction.checkIntervalMs}",
+      initialDelayString = "${triplestore.compaction.checkIntervalMs}")
+  public void checkGrowth() {
+    if (growthRatio <= 0 || baselineSize <= 0) {
+      return;
+    }
+    long size = size();
+    if (size >= baselineSize * growthRatio) {
+      log.info("database grew from {} to {}, compacting",
+          FileUtils.byteCountToDisplaySize(baselineSize), FileUtils.byteCountToDisplaySize(size));
+      compact("growth");
+    }
+  }
+
+  /**
+   * @return false if a compaction is already running, otherwise it is
+   *         reserved before returning and runs on the application executor
+   */
+  public boolean compactAsync(String trigger) {
+    if (!running.compareAndSet(false, true)) {
+      return false;
+    }
+    try {
+      taskExecutor.execute(() -> {
+        try {
+          run(trigger);
+        } catch (Exception exc) {
+          // logged by run
+        }
+      });
+    } catch (RuntimeException exc) {
+      running.set(false);
+      throw exc;
+    }
+    return true;
+  }
+
+  public boolean isRunning() {
+    return running.get();
+  }
+
+  public Optional<CompactionReport> getLastReport() {
+    return Optional.ofNullable(lastReport);
+  }
+
+  /**
+   * @return the report, empty if a compaction was already running
+   */
+  public Optional<CompactionReport> compact(String trigger) {
+    if (!running.compareAndSet(false, true)) {
+      log.info("compaction already running, skipping the {} trigger", trigger);
+      return Optional.empty();
+    }
+    return Optional.of(run(trigger));
+  }
+
+  /**
+   * runs the compaction reserved by the caller
+   */
+  private CompactionReport run(String trigger) {
+    try {
+      var startedAt = Instant.now();
+      var before = metrics.readLatency();
+      long sizeBefore = size();
+      long start = System.nanoTime();
+      log.info("compacting {} ({}), trigger: {}", databaseDir, FileUtils.byteCountToDisplaySize(sizeBefore),
+          trigger);
+      // the compaction waits for every read transaction, including the ones of idle cursors
+      cursors.suspend();
+      try {
+        writer.execute(() -> DatabaseMgr.compact(TDBConfig.storage(ds), deleteOld));
+      } finally {
+        cursors.resume();
+      }
+      long nanos = System.nanoTime() - start;
+      long sizeAfter = size();
+      var after = metrics.readLatency();
+      var report = new CompactionReport(startedAt, trigger, sizeBefore, sizeAfter, sizeBefore - sizeAfter,
+          nanos / 1_000_000_000d, deleteOld, before.meanSince(lastSnapshot), after.meanSince(before));
+      metrics.recordCompaction(nanos, report.reclaimed());
+      log.info("compaction done in {}s, {} -> {} ({} reclaimed), read latency before: {}ms, during: {}ms",
+          "%.2f".formatted(report.durationSeconds()), FileUtils.byteCountToDisplaySize(sizeBefore),
+          FileUtils.byteCountToDisplaySize(sizeAfter), FileUtils.byteCountToDisplaySize(report.reclaimed()),
+          report.readLatencyBeforeMs(), report.readLatencyDuringMs());
+      baselineSize = sizeAfter;
+      lastSnapshot = after;
+      lastReport = report;
+      return report;
+    } catch (Exception exc) {
+      log.error("compaction failed", exc);
+      throw exc;
+    } finally {
+      running.set(false);
+    }
+  }
+
+  /**
+   * @return the size of the live generation, the last Data-NNNN directory
+   */
+  long size() {
+    File[] generations = databaseDir.listFiles(file -> file.isDirectory()
+        && GENERATION.matcher(file.getName()).matches());
+    if (generations == null || generations.length == 0) {
+      return 0;
+    }
+    return FileUtils.sizeOfDirectory(Collections.max(Arrays.asList(generations)));
+  }
+}
@@ -1,14 +1,25 @@
 package tech.artcoded.triplestore.tdb;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.dboe.base.block.FileMode;
 import org.apache.jena.query.Dataset;
+import org.apache.jena.query.text.DatasetGraphText;
+import org.apache.jena.query.text.assembler.TextVocab;
 import org.apache.jena.rdf.model.AnonId;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.assembler.AssemblerUtils;
+import org.apache.jena.tdb2.DatabaseMgr;
 import org.apache.jena.tdb2.assembler.VocabTDB2;
+import org.apache.jena.tdb2.params.StoreParams;
+import org.apache.jena.tdb2.params.StoreParamsCodec;
+import org.apache.jena.tdb2.sys.TDBInternal;
 import org.apache.jena.vocabulary.RDF;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -17,10 +28,37 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 @Slf4j
 public class TDBConfig {
+  /**
+   * lucene fields of the text index, every indexed predicate goes to the
+   * same field so text:query searches them all by default
+   */
+  public static final String TEXT_FIELD = "text";
+  static final String ENTITY_FIELD = "uri";
+  static final String GRAPH_FIELD = "graph";
+  static final String UID_FIELD = "uid";
+
   @Value("${triplestore.database.dir}")
   private String tripleStoreDir;
   @Value("${triplestore.database.unionDefaultGraph}")
   private boolean unionDefaultGraph;
+  @Value("${triplestore.database.params.fileMode}")
+  private FileMode fileMode;
+  @Value("${triplestore.database.params.blockReadCacheSize}")
+  private int blockReadCacheSize;
+  @Value("${triplestore.database.params.blockWriteCacheSize}")
+  private int blockWriteCacheSize;
+  @Value("${triplestore.database.params.node2NodeIdCacheSize}")
+  private int node2NodeIdCacheSize;
+  @Value("${triplestore.database.params.nodeId2NodeCacheSize}")
+  private int nodeId2NodeCacheSize;
+  @Value("${triplestore.database.params.nodeMissCacheSize}")
+  private int nodeMissCacheSize;
+  @Value("${triplestore.text.enabled}")
+  private boolean textEnabled;
+  @Value("${triplestore.text.dir}")
+  private String textDir;
+  @Value("${triplestore.text.predicates}")
+  private String textPredicates;
 
   @Bean(destroyMethod = "close")
   public Dataset database() {
@@ -28,6 +66,11 @@ public class TDBConfig {
     if (!dir.exists()) {
       log.info("creating directory {}: {}", tripleStoreDir, dir.mkdirs());
     }
+    // connections are cached by location: the assembler below gets this one
+    // back, opened with the configured params
+    var tdb = TDBInternal.getDatasetGraphTDB(DatabaseMgr.connectDatasetGraph(tripleStoreDir, storeParams()));
+    // compaction opens the next generation with the tdb.cfg of the current one
+    StoreParamsCodec.write(tdb.getLocation(), tdb.getStoreParams());
 
     Model assemblerModel = ModelFactory.createDefaultModel();
     Resource dataset = assemblerModel.createResource(AnonId.create("dataset"));
@@ -35,6 +78,72 @@ public class TDBConfig {
     dataset.addProperty(VocabTDB2.pLocation, tripleStoreDir);
     dataset.addLiteral(VocabTDB2.pUnionDefaultGraph, unionDefaultGraph);
 
-    return (Dataset) AssemblerUtils.build(assemblerModel, VocabTDB2.tDatasetTDB);
+    if (!textEnabled) {
+      return (Dataset) AssemblerUtils.build(assemblerModel, VocabTDB2.tDatasetTDB);
+    }
+    File indexDir = new File(textDir);
+    if (!indexDir.exists()) {
+      log.info("creating directory {}: {}", textDir, indexDir.mkdirs());
+    }
+    List<String> predicates = Arrays.stream(textPredicates.split(","))
+        .map(String::trim)
+        .filter(predicate -> !predicate.isEmpty())
+        .toList();
+    log.info("text index in {} over {}", textDir, predicates);
+
+    // the lucene assembler looks the entity map up by its uri
+    Resource entityMap = assemblerModel.createResource("urn:triplestore:text:entityMap");
+    entityMap.addProperty(RDF.type, TextVocab.entityMap);
+    entityMap.addProperty(TextVocab.pEntityField, ENTITY_FIELD);
+    entityMap.addProperty(TextVocab.pDefaultField, TEXT_FIELD);
+    entityMap.addProperty(TextVocab.pGraphField, GRAPH_FIELD);
+    // without a uid field, a deleted literal stays in the index
+    entityMap.addProperty(TextVocab.pUidField, UID_FIELD);
+    entityMap.addProperty(TextVocab.pMap, assemblerModel.createList(predicates.stream()
+        .<RDFNode>map(predicate -> assemblerModel.createResource()
+            .addProperty(TextVocab.pField, TEXT_FIELD)
+            .addProperty(TextVocab.pPredicate, assemblerModel.createResource(predicate)))
+        .iterator()));
+
+    Resource index = assemblerModel.createResource(AnonId.create("textIndex"));
+    index.addProperty(RDF.type, TextVocab.textIndexLucene);
+    index.addProperty(TextVocab.pDirectory, assemblerModel.createResource(indexDir.toURI().toString()));
+    index.addLiteral(TextVocab.pStoreValues, true);
+    index.addProperty(TextVocab.pEntityMap, entityMap);
+
+    Resource textDataset = assemblerModel.createResource(AnonId.create("textDataset"));
+    textDataset.addProperty(RDF.type, TextVocab.textDataset);
+    textDataset.addProperty(TextVocab.pDataset, dataset);
+    textDataset.addProperty(TextVocab.pIndex, index);
+
+    return (Dataset) AssemblerUtils.build(assemblerModel, TextVocab.textDataset);
+  }
+
+  /**
+   * only the cache sizes and the file mode: the block size and the indexes
+   * of an existing store cannot change. Block caches are used in direct mode,
+   * mapped files are cached by the OS.
+   */
+  private StoreParams storeParams() {
+    StoreParams params = StoreParams.builder("triplestore", StoreParams.getDftStoreParams())
+        .fileMode(fileMode)
+        .blockReadCacheSize(blockReadCacheSize)
+        .blockWriteCacheSize(blockWriteCacheSize)
+        .node2NodeIdCacheSize(node2NodeIdCacheSize)
+        .nodeId2NodeCacheSize(nodeId2NodeCacheSize)
+        .nodeMissCacheSize(nodeMissCacheSize)
+        .build();
+    log.info("store params: {} files, block cache {}/{}, node cache {}/{}/{}", fileMode, blockReadCacheSize,
+        blockWriteCacheSize, node2NodeIdCacheSize, nodeId2NodeCacheSize, nodeMissCacheSize);
+    return params;
+  }
+
+  /**
+   * @return the TDB2 dataset graph under the text index, if any. Compaction
+   *         and the bulk loaders work on it directly.
+   */
+  public static DatasetGraph storage(Dataset ds) {
+    DatasetGraph dsg = ds.asDatasetGraph();
+    return dsg instanceof DatasetGraphText text ? text.getWrapped() : dsg;
   }
 }
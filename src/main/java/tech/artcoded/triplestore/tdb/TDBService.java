@@ -1,47 +1,70 @@
 package tech.artcoded.triplestore.tdb;
 
+import static java.util.Optional.ofNullable;
 import static org.apache.jena.query.ResultSetFormatter.output;
-import static org.apache.jena.riot.Lang.TURTLE;
-import static org.apache.jena.riot.RDFDataMgr.write;
-import static org.apache.jena.riot.resultset.ResultSetLang.RS_CSV;
-import static org.apache.jena.riot.resultset.ResultSetLang.RS_JSON;
-import static org.apache.jena.riot.resultset.ResultSetLang.RS_Text;
-import static org.apache.jena.riot.resultset.ResultSetLang.RS_XML;
-
-import com.google.common.collect.Lists;
+
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteSource;
 import com.google.common.io.FileBackedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
-import java.util.stream.Stream;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.jena.atlas.web.ContentType;
-import org.apache.jena.graph.Graph;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryExecutionDatasetBuilder;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.TxnType;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdfpatch.PatchProcessor;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.rdfpatch.changes.PatchSummary;
+import org.apache.jena.rdfpatch.changes.RDFChangesApply;
+import org.apache.jena.rdfpatch.changes.RDFChangesCounter;
+import org.apache.jena.rdfpatch.changes.RDFChangesN;
+import org.apache.jena.rdfpatch.system.DatasetGraphChanges;
+import org.apache.jena.rdfpatch.system.RDFChangesSuppressEmpty;
 import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.riot.RDFFormat;
-import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.ARQConstants;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.exec.UpdateExec;
+import org.apache.jena.sparql.resultset.ResultSetWrapper;
 import org.apache.jena.system.Txn;
 import org.apache.jena.update.UpdateRequest;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import tech.artcoded.triplestore.sparql.AlgebraUtil;
 import tech.artcoded.triplestore.sparql.QueryParserUtil;
 import tech.artcoded.triplestore.sparql.SparqlResult;
 
@@ -52,6 +75,13 @@ public class TDBService {
   private static final int THRESHOLD = 4 * 1024 * 1024; // 4mb
 
   private final Dataset ds;
+  private final QueryResultCache resultCache;
+  private final QueryExecutionEngine queryEngine;
+  private final TriplestoreMetrics metrics;
+  private final PatchLog patchLog;
+  private final MaterializedViews views;
+  private final AtomicLong generation = new AtomicLong();
+  private final StoreWriter writer;
 
   @Value("${triplestore.batchSize}")
   private int batchSize;
@@ -59,49 +89,285 @@ public class TDBService {
   private int maxRetry;
   @Value("${triplestore.query.timeout}")
   private long timeout;
+  @Value("${triplestore.query.streaming}")
+  private boolean streaming;
+  @Value("${triplestore.query.construct.dedupWindow}")
+  private int dedupWindow;
+  @Value("${triplestore.query.construct.maxTriples}")
+  private long maxTriples;
 
-  public TDBService(Dataset ds) {
+  public TDBService(Dataset ds, QueryResultCache resultCache, QueryExecutionEngine queryEngine,
+      TriplestoreMetrics metrics, PatchLog patchLog, MaterializedViews views, StoreWriter writer) {
     this.ds = ds;
+    this.resultCache = resultCache;
+    this.queryEngine = queryEngine;
+    this.metrics = metrics;
+    this.patchLog = patchLog;
+    this.views = views;
+    this.writer = writer;
+    metrics.registerDatasetGeneration(generation::get);
+  }
+
+  /**
+   * @return the dataset generation, bumped on every commit that changed data
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * A read query ready to be looked up and executed. Its algebra is compiled
+   * once, for the views, the result cache and the admission. The generation is
+   * read before the lookup, so a result computed after a commit in between is
+   * cached against the older generation and never served.
+   */
+  public record PreparedQuery(Query query, Op op, Lang lang, Optional<String> cacheKey, long generation) {
+  }
+
+  public PreparedQuery prepare(Query q, String acceptHeader, boolean useCache) {
+    Lang lang = ContentNegotiation.negotiate(acceptHeader, q.queryType());
+    Op op = Algebra.compile(q);
+    long currentGeneration = generation.get();
+    Optional<String> cacheKey = useCache ? resultCache.key(q, op, lang) : Optional.empty();
+    return new PreparedQuery(q, op, lang, cacheKey, currentGeneration);
   }
 
   public SparqlResult executeQuery(Query q, String acceptHeader) {
+    return executeQuery(q, acceptHeader, true);
+  }
+
+  public SparqlResult executeQuery(Query q, String acceptHeader, boolean useCache) {
+    var prepared = prepare(q, acceptHeader, useCache);
+    return lookup(prepared).orElseGet(() -> execute(prepared));
+  }
+
+  /**
+   * @return the answer of a materialized view or of the result cache, the
+   *         query is not executed
+   */
+  public Optional<SparqlResult> lookup(PreparedQuery prepared) {
+    Query q = prepared.query();
+    Lang lang = prepared.lang();
+    var fromView = views.answer(q, prepared.op());
+    if (fromView.isPresent()) {
+      var rows = fromView.get();
+      metrics.recordResults(q.queryType().name(), rows.rows().size());
+      return Optional.of(SparqlResult.builder()
+          .contentType(lang.getContentType().getContentTypeStr())
+          .writer(out -> rows.writeTo(out, lang))
+          .results(rows.rows().size())
+          .build());
+    }
+    return prepared.cacheKey().flatMap(key -> resultCache.get(key, prepared.generation()));
+  }
+
+  /**
+   * Executes the query, see lookup for the answers that do not need it.
+   */
+  public SparqlResult execute(PreparedQuery prepared) {
+    Query q = prepared.query();
+    Lang lang = prepared.lang();
+    Optional<String> cacheKey = prepared.cacheKey();
+    long currentGeneration = prepared.generation();
+    // graphs are only streamed in languages with a streaming writer, the others are built in memory first
+    if (streaming && (q.isSelectType() || q.isAskType() || StreamRDFWriter.registered(lang))) {
+      return streamQuery(q, lang, cacheKey, currentGeneration);
+    }
+    var execution = new AtomicReference<QueryExecution>();
     Supplier<SparqlResult> _executeQuery = () -> {
+      try (QueryExecution queryExecution = newQueryExecution(q)) {
+        execution.set(queryExecution);
+        var results = new AtomicLong();
+        var result = tryFormat(out -> results.set(format(q, queryExecution, out, lang)), lang)
+            .toBuilder()
+            .results(results.get())
+            .build();
+        return cacheKey.map(key -> cacheResult(key, currentGeneration, result)).orElse(result);
+      } catch (ResultTooLargeException exc) {
+        throw exc;
+      } catch (Exception exc) {
+        log.error("exception occurred", exc);
+        throw new RuntimeException(exc);
+      }
+    };
+    return queryEngine.execute(() -> calculate(TxnType.READ, q.queryType().name(), _executeQuery),
+        timeout, TimeUnit.SECONDS,
+        () -> ofNullable(execution.get()).ifPresent(QueryExecution::abort));
+  }
+
+  /**
+   * @return the number of rows or triples written
+   */
+  private long format(Query q, QueryExecution queryExecution, OutputStream out, Lang lang) {
+    long results = switch (q.queryType()) {
+      case ASK -> {
+        output(out, queryExecution.execAsk(), lang);
+        yield 1;
+      }
+      case SELECT -> {
+        var resultSet = new CountingResultSet(queryExecution.execSelect());
+        output(out, resultSet, lang);
+        yield resultSet.rows;
+      }
+      case DESCRIBE ->
+        GraphResultWriter.write(queryExecution.execDescribeTriples(), q.getPrefixMapping(), out, lang, dedupWindow,
+            maxTriples);
+      case CONSTRUCT ->
+        GraphResultWriter.write(queryExecution.execConstructTriples(), q.getPrefixMapping(), out, lang, dedupWindow,
+            maxTriples);
+      default -> throw new UnsupportedOperationException(q.queryType() + " Not supported");
+    };
+    metrics.recordResults(q.queryType().name(), results);
+    return results;
+  }
+
+  /**
+   * Explain without execution: the optimized algebra.
+   */
+  public QueryPlan explain(Query q) {
+    return new QueryPlan(q.serialize(), AlgebraUtil.optimized(q).toString(), null, null, null);
+  }
+
+  /**
+   * Explain with a real execution: the algebra as executed by TDB2, with the
+   * cardinality and time of each operator. Results are counted, not
+   * serialized.
+   */
+  public QueryPlan profile(Query q) {
+    var execution = new AtomicReference<QueryExecution>();
+    Supplier<QueryPlan> _profile = () -> {
+      var profile = new QueryProfile();
       try (QueryExecution queryExecution = QueryExecutionDatasetBuilder.create()
           .query(q)
           .dataset(ds)
           .timeout(timeout, TimeUnit.SECONDS)
+          .set(ARQConstants.sysOpExecutorFactory, profile.executorFactory())
           .build()) {
-        return switch (q.queryType()) {
-          case ASK -> tryFormat((lang, out) -> output(out, queryExecution.execAsk(), lang), acceptHeader, RS_JSON);
-          case SELECT ->
-            tryFormat((lang, out) -> output(out, queryExecution.execSelect(), lang), acceptHeader, RS_JSON);
-          case DESCRIBE ->
-            tryFormat((lang, out) -> write(out, queryExecution.execDescribe(), lang), acceptHeader, TURTLE);
-          case CONSTRUCT ->
-            tryFormat((lang, out) -> write(out, queryExecution.execConstruct(), lang), acceptHeader, TURTLE);
+        execution.set(queryExecution);
+        long start = System.nanoTime();
+        long results = switch (q.queryType()) {
+          case ASK -> queryExecution.execAsk() ? 1 : 0;
+          case SELECT -> Iter.count(queryExecution.execSelect());
+          case CONSTRUCT -> Iter.count(queryExecution.execConstructTriples());
+          case DESCRIBE -> Iter.count(queryExecution.execDescribeTriples());
           default -> throw new UnsupportedOperationException(q.queryType() + " Not supported");
         };
-      } catch (Exception exc) {
-        log.error("exception occurred", exc);
-        throw new RuntimeException(exc);
+        double timeMs = Math.round((System.nanoTime() - start) / 1_000d) / 1_000d;
+        return new QueryPlan(q.serialize(),
+            profile.root().map(Op::toString).orElseGet(() -> AlgebraUtil.optimized(q).toString()),
+            results, timeMs, profile.tree().orElse(null));
       }
     };
-    return this.executeQueryTimeout(() -> Txn.calculateRead(ds, _executeQuery));
+    return queryEngine.execute(() -> calculate(TxnType.READ, q.queryType().name(), _profile),
+        timeout, TimeUnit.SECONDS,
+        () -> ofNullable(execution.get()).ifPresent(QueryExecution::abort));
   }
 
-  private SparqlResult executeQueryTimeout(Supplier<SparqlResult> supplier) {
-    CompletableFuture<SparqlResult> future = CompletableFuture.supplyAsync(supplier);
+  /**
+   * counts the rows read by the result writers, which bypass getRowNumber
+   */
+  private static class CountingResultSet extends ResultSetWrapper {
+    private long rows;
+
+    CountingResultSet(ResultSet resultSet) {
+      super(resultSet);
+    }
+
+    @Override
+    public QuerySolution next() {
+      rows++;
+      return super.next();
+    }
+
+    @Override
+    public QuerySolution nextSolution() {
+      rows++;
+      return super.nextSolution();
+    }
+
+    @Override
+    public Binding nextBinding() {
+      rows++;
+      return super.nextBinding();
+    }
+  }
+
+  /**
+   * Txn.calculateRead / calculateWrite, measuring how long the transaction
+   * took to begin and how long it ran.
+   */
+  private <T> T calculate(TxnType txnType, String type, Supplier<T> action) {
+    long start = System.nanoTime();
+    ds.begin(txnType);
+    long begun = System.nanoTime();
+    metrics.recordTransactionWait(txnType, begun - start);
     try {
-      return future.get(timeout, TimeUnit.SECONDS);
-    } catch (TimeoutException | InterruptedException | ExecutionException e) {
-      future.cancel(true);
-      throw new RuntimeException(e);
+      T result = action.get();
+      if (txnType == TxnType.WRITE) {
+        ds.commit();
+      }
+      return result;
+    } catch (Throwable exc) {
+      ds.abort();
+      throw exc;
+    } finally {
+      ds.end();
+      metrics.recordExecution(type, System.nanoTime() - begun);
     }
   }
 
-  private SparqlResult tryFormat(BiConsumer<Lang, OutputStream> consumer, String contentType, Lang fallback) {
-    Lang lang = guessLang(contentType, fallback);
-    var body = writeToOutputStream(outputStream -> consumer.accept(lang, outputStream));
+  /**
+   * Streaming mode: the query only takes its place in the execution queue
+   * here. The transaction and the execution are opened by the thread writing
+   * the response, so rows go straight to the client. The queue slot is
+   * released by SparqlResult.release() when the writer never runs.
+   *
+   * @throws QueryRejectedException when the queue is full
+   */
+  private SparqlResult streamQuery(Query q, Lang lang, Optional<String> cacheKey, long currentGeneration) {
+    String contentType = lang.getContentType().getContentTypeStr();
+    var admission = queryEngine.admit();
+    var result = SparqlResult.builder()
+        .contentType(contentType)
+        .resources(admission)
+        .build();
+    result.setWriter(response -> {
+      try (admission) {
+        var out = resultCache.capture(response);
+        result.setResults(admission.run(() -> calculate(TxnType.READ, q.queryType().name(), () -> {
+          try (QueryExecution queryExecution = newQueryExecution(q)) {
+            return format(q, queryExecution, out, lang);
+          }
+        }), timeout, TimeUnit.SECONDS));
+        cacheKey.ifPresent(key -> out.cache(key, currentGeneration, contentType));
+      }
+    });
+    return result;
+  }
+
+  private QueryExecution newQueryExecution(Query q) {
+    return QueryExecutionDatasetBuilder.create()
+        .query(q)
+        .dataset(ds)
+        .timeout(timeout, TimeUnit.SECONDS)
+        .build();
+  }
+
+  @SneakyThrows
+  private SparqlResult cacheResult(String key, long currentGeneration, SparqlResult result) {
+    if (!(result.getBody() instanceof ByteSourceInputStream source) || !resultCache.accepts(source.size())) {
+      return result;
+    }
+    byte[] body;
+    try (var is = source) {
+      body = is.readAllBytes();
+    }
+    resultCache.put(key, currentGeneration, result.getContentType(), body);
+    return result.toBuilder().body(new ByteArrayInputStream(body)).build();
+  }
+
+  private SparqlResult tryFormat(Consumer<OutputStream> consumer, Lang lang) {
+    var body = writeToOutputStream(consumer);
 
     return SparqlResult.builder()
         .contentType(lang.getContentType().getContentTypeStr())
@@ -113,74 +379,438 @@ public class TDBService {
   private InputStream writeToOutputStream(Consumer<OutputStream> consumer) {
     try (var outputStream = new FileBackedOutputStream(THRESHOLD, true)) {
       consumer.accept(outputStream);
-      return outputStream.asByteSource().openStream();
+      var source = new ByteSourceInputStream(outputStream.asByteSource());
+      if (source.size() > THRESHOLD) {
+        metrics.recordSpill();
+      }
+      return source;
+    }
+  }
+
+  /**
+   * keeps track of the buffered result size, so it can be cached without
+   * reading spilled results back from disk.
+   */
+  private static class ByteSourceInputStream extends FilterInputStream {
+    private final ByteSource source;
+
+    ByteSourceInputStream(ByteSource source) throws IOException {
+      super(source.openStream());
+      this.source = source;
+    }
+
+    long size() throws IOException {
+      return source.size();
     }
   }
 
-  private Lang guessLang(String contentType, Lang fallback) {
+  public PatchSummary executeUpdateQuery(String updateQuery) {
+    return executeUpdateQueries(List.of(updateQuery)).getFirst();
+  }
+
+  /**
+   * Applies the update right away, waiting at most maxWait for the writer.
+   *
+   * @throws QueryRejectedException when another write still holds the writer
+   *                                after maxWait
+   */
+  public UpdateResult executeUpdateQuery(String updateQuery, Duration maxWait) {
+    return withWriter(maxWait, () -> {
+      var summary = executeUpdateQuery(updateQuery);
+      return new UpdateResult(summary.getCountAddData(), summary.getCountDeleteData(), generation.get());
+    });
+  }
+
+  /**
+   * Runs the write holding the writer, waiting at most maxWait for it, e.g.
+   * during a compaction.
+   *
+   * @throws QueryRejectedException when another write still holds the writer
+   *                                after maxWait
+   */
+  private <T> T withWriter(Duration maxWait, Supplier<T> write) {
+    try {
+      if (!writer.tryLock(maxWait)) {
+        throw new QueryRejectedException("the writer is busy, try again later");
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new QueryRejectedException("interrupted while waiting for the writer");
+    }
     try {
-      return Stream.concat(RDFLanguages.getRegisteredLanguages().stream(), Stream.of(RS_Text, RS_JSON, RS_XML, RS_CSV))
-          .filter(l -> l.getContentType().equals(ContentType.create(contentType)))
-          .findFirst().orElse(fallback);
-    } catch (Exception exc) {
-      log.error("unexpected exception occurred", exc);
-      return fallback;
+      return write.get();
+    } finally {
+      writer.unlock();
     }
+  }
 
+  /**
+   * Group commit: applies the updates in order inside a single write
+   * transaction. If any of them fails, the transaction is aborted and nothing
+   * is applied.
+   *
+   * @return one summary per update, in the same order
+   */
+  public List<PatchSummary> executeUpdateQueries(List<String> updateQueries) {
+    return executeWrite("UPDATE", updateQueries.stream()
+        .<Consumer<DatasetGraph>>map(updateQuery -> dsgc -> QueryParserUtil.takeUpdate(updateQuery)
+            .map(u -> u.query() instanceof UpdateRequest updates ? updates : null)
+            .map(u -> UpdateExec.dataset(dsgc).update(u).build())
+            .ifPresent(UpdateExec::execute))
+        .toList());
   }
 
-  @SneakyThrows
-  public org.apache.jena.rdfpatch.changes.PatchSummary executeUpdateQuery(String updateQuery) {
-    var counter = new org.apache.jena.rdfpatch.changes.RDFChangesCounter();
-    var c = new org.apache.jena.rdfpatch.system.RDFChangesSuppressEmpty(counter);
+  /**
+   * Runs the operations in a single write transaction, each against its own
+   * change-counting view of the dataset.
+   */
+  private List<PatchSummary> executeWrite(String type,
+      List<Consumer<DatasetGraph>> operations) {
+    var counters = new ArrayList<RDFChangesCounter>();
     var dsg0 = ds.asDatasetGraph();
-    var dsgc = new org.apache.jena.rdfpatch.system.DatasetGraphChanges(dsg0, c);
-    Txn.executeWrite(ds, () -> {
-      QueryParserUtil.parseUpdate(updateQuery)
-          .map(u -> u.query() instanceof UpdateRequest updates ? updates : null)
-          .map(u -> UpdateExec.dataset(dsgc).update(u).build())
-          .ifPresent(UpdateExec::execute);
-    });
-    return counter.summary();
+    writer.lock();
+    // changes of the transaction, written to the patch log before the commit
+    try (var patch = beginPatch()) {
+      var viewChanges = calculate(TxnType.WRITE, type, () -> {
+        // taken in the transaction, so a view registered meanwhile is either counted or sees this write
+        var changes = views.changes(dsg0);
+        var patchWriter = patch != null ? RDFPatchOps.textWriter(patch.output()) : null;
+        for (var operation : operations) {
+          var counter = new RDFChangesCounter();
+          RDFChanges c = new RDFChangesSuppressEmpty(counter);
+          if (patchWriter != null) {
+            c = RDFChangesN.multi(c, patchWriter);
+          }
+          if (changes != null) {
+            c = RDFChangesN.multi(c, changes);
+          }
+          var dsgc = new DatasetGraphChanges(dsg0, c);
+          counters.add(counter);
+          operation.accept(dsgc);
+        }
+        if (patchWriter != null) {
+          patchWriter.finish();
+          prepare(patch);
+        }
+        return changes;
+      });
+      if (patch != null) {
+        patch.commit();
+      }
+      views.apply(viewChanges);
+      var summaries = counters.stream().map(RDFChangesCounter::summary).toList();
+      metrics.recordChanges(
+          summaries.stream().mapToLong(PatchSummary::getCountAddData).sum(),
+          summaries.stream().mapToLong(PatchSummary::getCountDeleteData).sum());
+      if (summaries.stream().anyMatch(summary -> summary.getCountAddData() + summary.getCountDeleteData() > 0)) {
+        generation.incrementAndGet();
+        resultCache.invalidateAll();
+      }
+      return summaries;
+    } finally {
+      writer.unlock();
+    }
+  }
+
+  /**
+   * @return null when the patch log is disabled or broken
+   */
+  private PatchLog.Append beginPatch() {
+    try {
+      return patchLog.begin();
+    } catch (IOException exc) {
+      throw new UncheckedIOException("could not write to the patch log", exc);
+    }
+  }
+
+  /**
+   * A patch that cannot be written aborts the transaction, followers would
+   * miss it.
+   */
+  private static void prepare(PatchLog.Append patch) {
+    try {
+      patch.prepare();
+    } catch (IOException exc) {
+      throw new UncheckedIOException("could not write to the patch log", exc);
+    }
+  }
+
+  /**
+   * Applies the rdf patches of another instance in a single write
+   * transaction, their transaction markers are ignored.
+   */
+  public PatchSummary applyPatches(PatchProcessor patches) {
+    return executeWrite("REPLICATION", List.<Consumer<DatasetGraph>>of(
+        dsgc -> patches.apply(new RDFChangesApply(dsgc) {
+          @Override
+          public void txnBegin() {
+          }
+
+          @Override
+          public void txnCommit() {
+          }
+
+          @Override
+          public void txnAbort() {
+          }
+        }))).getFirst();
   }
 
-  public org.apache.jena.rdfpatch.changes.PatchSummary insertModel(
+  public PatchSummary insertModel(
       String graphUri, Model model) {
-    var writer = new StringWriter();
-    RDFDataMgr.write(writer, model, RDFFormat.NTRIPLES);
-    String updateQuery = String.format("INSERT DATA { GRAPH <%s> { %s } }",
-        graphUri, writer);
-    log.debug(updateQuery);
-    return executeUpdateQuery(updateQuery);
+    return insertTriples(graphUri, model.getGraph().find().toList());
+  }
+
+  /**
+   * Writes the triples straight into the named graph in one write transaction.
+   * Triples already in the graph are skipped, so the summary only counts what
+   * was really added.
+   */
+  public PatchSummary insertTriples(
+      String graphUri, Collection<Triple> triples) {
+    Node graph = NodeFactory.createURI(graphUri);
+    return executeWrite("LOAD", List.<Consumer<DatasetGraph>>of(dsgc -> triples.forEach(t -> {
+      if (!dsgc.contains(graph, t.getSubject(), t.getPredicate(), t.getObject())) {
+        dsgc.add(graph, t.getSubject(), t.getPredicate(), t.getObject());
+      }
+    }))).getFirst();
   }
 
   public long batchLoadData(String graph, Model model) {
     log.info(
         "running import triples with batch size {}, model size: {}, graph: <{}>",
         batchSize, model.size(), graph);
-    List<Triple> triples = model.getGraph().find().toList(); // duplicate so we can splice
-    return Lists.partition(triples, batchSize)
-        .stream()
-        .parallel()
-        .map(batch -> {
-          Model batchModel = ModelFactory.createDefaultModel();
-          Graph batchGraph = batchModel.getGraph();
-          batch.forEach(batchGraph::add);
-          return batchModel;
-        })
-        .peek(batchModel -> log.info("running import triples with model size {}",
-            batchModel.size()))
-        .map(batchModel -> this.insertModelOrRetry(graph, batchModel))
-        .mapToLong(p -> p.getCountAddData() + p.getCountDeleteData())
-        .sum();
-  }
-
-  private org.apache.jena.rdfpatch.changes.PatchSummary insertModelOrRetry(
-      String graph, Model batchModel) {
+    ExtendedIterator<Triple> triples = model.getGraph().find();
+    try {
+      return batchLoadData(graph, triples);
+    } finally {
+      triples.close();
+    }
+  }
+
+  /**
+   * Loads the triples in batches of batchSize, one write transaction per
+   * batch. TDB2 only allows a single writer, so batches are written
+   * sequentially.
+   *
+   * @return the number of triples added
+   */
+  public long batchLoadData(String graph, Iterator<Triple> triples) {
+    var progress = new LoadProgress(graph);
+    var batches = Iterators.partition(triples, batchSize);
+    while (batches.hasNext()) {
+      var batch = batches.next();
+      progress.batchDone(batch.size(), this.insertTriplesOrRetry(graph, batch));
+    }
+    return progress.done();
+  }
+
+  /**
+   * Streaming variant: the parser pushes triples into a sink that writes them
+   * in batches of batchSize, so memory stays constant whatever the input size.
+   *
+   * @param parser parses the source into the given sink
+   * @return the number of triples added
+   */
+  public long batchLoadData(String graph, Consumer<StreamRDF> parser) {
+    var progress = new LoadProgress(graph);
+    parser.accept(new BatchingStreamRDF(batchSize,
+        batch -> progress.batchDone(batch.size(), this.insertTriplesOrRetry(graph, batch))));
+    return progress.done();
+  }
+
+  /**
+   * Removes the parsed triples from the graph in batches of batchSize, one
+   * write transaction per batch.
+   *
+   * @return the number of triples deleted
+   */
+  public long batchDeleteData(String graphUri, Consumer<StreamRDF> parser) {
+    Node graph = NodeFactory.createURI(graphUri);
+    var deleted = new AtomicLong();
+    parser.accept(new BatchingStreamRDF(batchSize, batch -> deleted.addAndGet(executeWrite("UPDATE",
+        List.<Consumer<DatasetGraph>>of(dsgc -> batch.forEach(t -> {
+          if (dsgc.contains(graph, t.getSubject(), t.getPredicate(), t.getObject())) {
+            dsgc.delete(graph, t.getSubject(), t.getPredicate(), t.getObject());
+          }
+        }))).getFirst().getCountDeleteData())));
+    log.info("deleted {} triples from graph <{}>", deleted.get(), graphUri);
+    return deleted.get();
+  }
+
+  /**
+   * @return true when the graph has at least one triple
+   */
+  public boolean containsGraph(String graphUri) {
+    Node graph = NodeFactory.createURI(graphUri);
+    return Txn.calculateRead(ds, () -> {
+      var quads = ds.asDatasetGraph().find(graph, Node.ANY, Node.ANY, Node.ANY);
+      try {
+        return quads.hasNext();
+      } finally {
+        Iter.close(quads);
+      }
+    });
+  }
+
+  /**
+   * Graph store GET, streamed like the queries in streaming mode: the read
+   * transaction is opened by the writer, on the thread that writes the
+   * response, and each triple goes straight to the client.
+   *
+   * @param lang a language with a streaming writer
+   */
+  public SparqlResult exportGraph(String graphUri, Lang lang) {
+    Node graph = NodeFactory.createURI(graphUri);
+    var result = SparqlResult.builder()
+        .contentType(lang.getContentType().getContentTypeStr())
+        .build();
+    result.setWriter(out -> result.setResults(calculate(TxnType.READ, "EXPORT", () -> {
+      var dsg = ds.asDatasetGraph();
+      var stream = StreamRDFLib.count(StreamRDFWriter.getWriterStream(out, lang));
+      stream.start();
+      dsg.prefixes().forEach(stream::prefix);
+      var quads = dsg.find(graph, Node.ANY, Node.ANY, Node.ANY);
+      try {
+        quads.forEachRemaining(quad -> stream.triple(quad.asTriple()));
+      } finally {
+        Iter.close(quads);
+      }
+      stream.finish();
+      return stream.countTriples();
+    })));
+    return result;
+  }
+
+  /**
+   * Graph store PUT. The body is parsed in full into a staging copy (RDF-Thrift,
+   * spilled to disk past 4mb) before the graph is touched, so a parse error
+   * leaves it as it was. The graph is then emptied and loaded from the staged
+   * copy in one write transaction: readers see the old graph or the new one.
+   *
+   * @param maxWait how long to wait for the writer
+   * @throws QueryRejectedException when the writer is still busy after maxWait
+   */
+  @SneakyThrows
+  public UpdateResult replaceGraph(String graphUri, Consumer<StreamRDF> parser, Duration maxWait) {
+    var staging = new FileBackedOutputStream(THRESHOLD, true);
+    try {
+      var staged = stage(parser, staging);
+      Node graph = NodeFactory.createURI(graphUri);
+      return withWriter(maxWait, () -> {
+        var summaries = executeWrite("LOAD", List.<Consumer<DatasetGraph>>of(
+            dsgc -> dsgc.deleteAny(graph, Node.ANY, Node.ANY, Node.ANY),
+            dsgc -> staged.accept(new StreamRDFBase() {
+              @Override
+              public void triple(Triple t) {
+                dsgc.add(graph, t.getSubject(), t.getPredicate(), t.getObject());
+              }
+            })));
+        long deleted = summaries.getFirst().getCountDeleteData();
+        return new UpdateResult(summaries.getLast().getCountAddData(), deleted, generation.get(), deleted == 0);
+      });
+    } finally {
+      staging.reset();
+    }
+  }
+
+  /**
+   * Graph store POST: the body is staged like for a PUT, then merged into the
+   * graph in batches while holding the writer.
+   *
+   * @param maxWait how long to wait for the writer
+   * @throws QueryRejectedException when the writer is still busy after maxWait
+   */
+  @SneakyThrows
+  public UpdateResult mergeGraph(String graphUri, Consumer<StreamRDF> parser, Duration maxWait) {
+    var staging = new FileBackedOutputStream(THRESHOLD, true);
+    try {
+      var staged = stage(parser, staging);
+      return withWriter(maxWait, () -> {
+        // no other write can fill the graph in between
+        boolean created = !containsGraph(graphUri);
+        long added = batchLoadData(graphUri, staged);
+        return new UpdateResult(added, 0, generation.get(), created);
+      });
+    } finally {
+      staging.reset();
+    }
+  }
+
+  /**
+   * Graph store DELETE, in a single write transaction.
+   */
+  public UpdateResult clearGraph(String graphUri) {
+    Node graph = NodeFactory.createURI(graphUri);
+    var summary = executeWrite("UPDATE", List.<Consumer<DatasetGraph>>of(
+        dsgc -> dsgc.deleteAny(graph, Node.ANY, Node.ANY, Node.ANY))).getFirst();
+    return new UpdateResult(0, summary.getCountDeleteData(), generation.get());
+  }
+
+  /**
+   * @param maxWait how long to wait for the writer
+   * @throws QueryRejectedException when the writer is still busy after maxWait
+   */
+  public UpdateResult clearGraph(String graphUri, Duration maxWait) {
+    return withWriter(maxWait, () -> clearGraph(graphUri));
+  }
+
+  /**
+   * parses the body in full into the staging stream, before the writer is
+   * taken: a slow upload or a syntax error does not hold other writes
+   *
+   * @return parses the staged copy into the given sink
+   */
+  private static Consumer<StreamRDF> stage(Consumer<StreamRDF> parser, FileBackedOutputStream staging)
+      throws IOException {
+    var staged = StreamRDFWriter.getWriterStream(staging, Lang.RDFTHRIFT);
+    parser.accept(staged);
+    staging.close();
+    ByteSource source = staging.asByteSource();
+    return sink -> {
+      try (var in = source.openBufferedStream()) {
+        RDFParser.source(in).lang(Lang.RDFTHRIFT).parse(sink);
+      } catch (IOException exc) {
+        throw new UncheckedIOException(exc);
+      }
+    };
+  }
+
+  private class LoadProgress {
+    private final String graph;
+    private final long start = System.nanoTime();
+    private long count;
+    private long changed;
+
+    LoadProgress(String graph) {
+      this.graph = graph;
+    }
+
+    void batchDone(int size, PatchSummary summary) {
+      count += size;
+      changed += summary.getCountAddData() + summary.getCountDeleteData();
+      log.info("imported batch of {} triples in graph <{}>, {} triples so far, {} triples/sec",
+          size, graph, count, Math.round(count / elapsedSeconds()));
+    }
+
+    long done() {
+      double seconds = elapsedSeconds();
+      log.info("imported {} triples ({} added) in graph <{}> in {}s, {} triples/sec",
+          count, changed, graph, "%.2f".formatted(seconds), Math.round(count / seconds));
+      return changed;
+    }
+
+    private double elapsedSeconds() {
+      return Math.max(System.nanoTime() - start, 1) / 1_000_000_000d;
+    }
+  }
+
+  private PatchSummary insertTriplesOrRetry(
+      String graph, List<Triple> batch) {
     int retryCount = 0;
     do {
       try {
-        return this.insertModel(graph, batchModel);
+        return this.insertTriples(graph, batch);
       } catch (Exception e) {
         log.error(
             "an error occurred, retry count {}, max retry {}, error: {}",
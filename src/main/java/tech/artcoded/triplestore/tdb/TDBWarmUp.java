@@ -0,0 +1,196 @@
+package tech.artcoded.triplestore.tdb;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.atlas.lib.Pair;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionDatasetBuilder;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.store.DatasetGraphTDB;
+import org.apache.jena.tdb2.store.NodeId;
+import org.apache.jena.tdb2.store.nodetable.NodeTable;
+import org.apache.jena.tdb2.store.tupletable.TupleIndex;
+import org.apache.jena.tdb2.sys.TDBInternal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the indexes, the node table and the warm-up queries once after a
+ * restart. Until it is done, the health endpoint answers OUT_OF_SERVICE.
+ */
+@Component("warmUp")
+@Slf4j
+public class TDBWarmUp implements HealthIndicator {
+  public record Report(Instant startedAt, long indexEntries, long nodes, int queries, int failedQueries,
+      boolean complete, double durationSeconds) {
+  }
+
+  private final Dataset ds;
+  private final boolean enabled;
+  private final boolean indexes;
+  private final Path queriesDir;
+  private final long maxDurationMs;
+
+  private volatile Report report;
+
+  public TDBWarmUp(Dataset ds,
+      @Value("${triplestore.warmUp.enabled}") boolean enabled,
+      @Value("${triplestore.warmUp.indexes}") boolean indexes,
+      @Value("${triplestore.warmUp.queriesDir}") String queriesDir,
+      @Value("${triplestore.warmUp.maxDurationMs}") long maxDurationMs,
+      MeterRegistry meterRegistry) {
+    this.ds = ds;
+    this.enabled = enabled;
+    this.indexes = indexes;
+    this.queriesDir = Path.of(queriesDir);
+    this.maxDurationMs = maxDurationMs;
+    Gauge.builder("triplestore.warmup.duration", this,
+        warmUp -> warmUp.getReport().map(Report::durationSeconds).orElse(Double.NaN))
+        .description("duration of the warm-up after the last start, in seconds")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    Thread.ofPlatform().name("warm-up").daemon().start(this::warmUp);
+  }
+
+  public Optional<Report> getReport() {
+    return Optional.ofNullable(report);
+  }
+
+  @Override
+  public Health health() {
+    if (!enabled) {
+      return Health.up().withDetail("warmUp", "disabled").build();
+    }
+    return getReport()
+        .map(done -> Health.up().withDetail("warmUp", done).build())
+        .orElseGet(() -> Health.outOfService().withDetail("warmUp", "running").build());
+  }
+
+  private void warmUp() {
+    var startedAt = Instant.now();
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxDurationMs);
+    long indexEntries = 0;
+    long nodes = 0;
+    int queries = 0;
+    int failedQueries = 0;
+    try {
+      if (indexes) {
+        DatasetGraph dsg = TDBConfig.storage(ds);
+        indexEntries = Txn.calculateRead(dsg, () -> readIndexes(TDBInternal.getDatasetGraphTDB(dsg), deadline));
+        nodes = Txn.calculateRead(dsg, () -> readNodes(TDBInternal.getDatasetGraphTDB(dsg), deadline));
+      }
+      for (Path file : queryFiles()) {
+        if (System.nanoTime() >= deadline) {
+          break;
+        }
+        try {
+          long results = run(QueryFactory.create(Files.readString(file, StandardCharsets.UTF_8)), deadline);
+          log.info("warm-up query {}: {} results", file.getFileName(), results);
+          queries++;
+        } catch (Exception exc) {
+          log.warn("warm-up query {} failed: {}", file.getFileName(), exc.getMessage());
+          failedQueries++;
+        }
+      }
+    } catch (Exception exc) {
+      log.error("warm-up failed", exc);
+    } finally {
+      boolean complete = System.nanoTime() < deadline;
+      report = new Report(startedAt, indexEntries, nodes, queries, failedQueries, complete,
+          (System.nanoTime() - start) / 1_000_000_000d);
+      log.info("warm-up done in {}s: {} index entries, {} nodes, {} queries{}",
+          "%.2f".formatted(report.durationSeconds()), indexEntries, nodes, queries,
+          complete ? "" : ", stopped after %dms".formatted(maxDurationMs));
+    }
+  }
+
+  private static long readIndexes(DatasetGraphTDB tdb, long deadline) {
+    long entries = 0;
+    var tables = List.of(tdb.getTripleTable().getNodeTupleTable().getTupleTable(),
+        tdb.getQuadTable().getNodeTupleTable().getTupleTable());
+    for (var table : tables) {
+      for (TupleIndex index : table.getIndexes()) {
+        entries += drain(index.all(), deadline);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * all() reads the node file under the caches, each node is then looked up
+   * through them to fill the NodeId to Node cache
+   */
+  private static long readNodes(DatasetGraphTDB tdb, long deadline) {
+    NodeTable nodeTable = tdb.getTripleTable().getNodeTupleTable().getNodeTable();
+    Iterator<NodeId> ids = Iter.map(nodeTable.all(), Pair::getLeft);
+    return drain(Iter.map(ids, nodeTable::getNodeForNodeId), deadline);
+  }
+
+  private long run(Query query, long deadline) {
+    long remainingMs = Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1);
+    return Txn.calculateRead(ds, () -> {
+      try (QueryExecution queryExecution = QueryExecutionDatasetBuilder.create()
+          .query(query)
+          .dataset(ds)
+          .timeout(remainingMs, TimeUnit.MILLISECONDS)
+          .build()) {
+        return switch (query.queryType()) {
+          case ASK -> queryExecution.execAsk() ? 1L : 0L;
+          case SELECT -> (long) Iter.count(queryExecution.execSelect());
+          case CONSTRUCT -> (long) Iter.count(queryExecution.execConstructTriples());
+          case DESCRIBE -> (long) Iter.count(queryExecution.execDescribeTriples());
+          default -> throw new UnsupportedOperationException(query.queryType() + " Not supported");
+        };
+      }
+    });
+  }
+
+  private List<Path> queryFiles() throws IOException {
+    if (!Files.isDirectory(queriesDir)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(queriesDir)) {
+      return files.filter(file -> file.getFileName().toString().endsWith(".rq")).sorted().toList();
+    }
+  }
+
+  private static long drain(Iterator<?> iterator, long deadline) {
+    long count = 0;
+    try {
+      while (iterator.hasNext() && System.nanoTime() < deadline) {
+        iterator.next();
+        count++;
+      }
+    } finally {
+      Iter.close(iterator);
+    }
+    return count;
+  }
+}
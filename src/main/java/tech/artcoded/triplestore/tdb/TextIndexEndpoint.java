@@ -0,0 +1,42 @@
+package tech.artcoded.triplestore.tdb;
+
+import java.util.Map;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/admin/text-index")
+public class TextIndexEndpoint {
+  private final TextIndexer textIndexer;
+
+  public TextIndexEndpoint(TextIndexer textIndexer) {
+    this.textIndexer = textIndexer;
+  }
+
+  /**
+   * starts a rebuild of the text index in the background, its report is
+   * available with GET once done
+   */
+  @PostMapping
+  public ResponseEntity<Map<String, Object>> rebuild() {
+    if (!textIndexer.isEnabled()) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "the text index is disabled"));
+    }
+    if (!textIndexer.rebuildAsync("admin")) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "a rebuild is already running"));
+    }
+    return ResponseEntity.accepted().body(Map.of("running", true));
+  }
+
+  @GetMapping
+  public ResponseEntity<Map<String, Object>> status() {
+    return ResponseEntity.ok(textIndexer.getLastReport()
+        .<Map<String, Object>>map(report -> Map.of("enabled", textIndexer.isEnabled(),
+            "running", textIndexer.isRunning(), "lastReport", report))
+        .orElseGet(() -> Map.of("enabled", textIndexer.isEnabled(), "running", textIndexer.isRunning())));
+  }
+}
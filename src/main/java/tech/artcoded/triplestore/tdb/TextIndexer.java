@@ -0,0 +1,138 @@
+package tech.artcoded.triplestore.tdb;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.text.DatasetGraphText;
+import org.apache.jena.query.text.TextIndexLucene;
+import org.apache.jena.query.text.TextQueryFuncs;
+import org.apache.jena.system.Txn;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuilds the lucene index of text:query from the store, in one write
+ * transaction, e.g. after a bulk load.
+ */
+@Component
+@Slf4j
+public class TextIndexer {
+  public record RebuildReport(Instant startedAt, String trigger, long entities, double durationSeconds) {
+  }
+
+  private final Dataset ds;
+  private final StoreWriter writer;
+  private final TextIndexLucene index;
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  private volatile RebuildReport lastReport;
+
+  public TextIndexer(Dataset ds, StoreWriter writer) {
+    this.ds = ds;
+    this.writer = writer;
+    this.index = ds.asDatasetGraph() instanceof DatasetGraphText text
+        && text.getTextIndex() instanceof TextIndexLucene lucene ? lucene : null;
+  }
+
+  /**
+   * fills an empty index when the store already has data
+   */
+  @PostConstruct
+  public void rebuildIfEmpty() {
+    if (!isEnabled() || index.getIndexWriter().getDocStats().numDocs > 0
+        || Txn.calculateRead(ds, () -> ds.asDatasetGraph().isEmpty())) {
+      return;
+    }
+    log.info("text index is empty, rebuilding it");
+    rebuild("startup");
+  }
+
+  public boolean isEnabled() {
+    return index != null;
+  }
+
+  public boolean isRunning() {
+    return running.get();
+  }
+
+  public Optional<RebuildReport> getLastReport() {
+    return Optional.ofNullable(lastReport);
+  }
+
+  /**
+   * @return false if a rebuild is already running
+   */
+  public boolean rebuildAsync(String trigger) {
+    if (running.get()) {
+      return false;
+    }
+    CompletableFuture.runAsync(() -> rebuild(trigger));
+    return true;
+  }
+
+  /**
+   * @return the report, empty if the index is disabled or a rebuild was
+   *         already running
+   */
+  public Optional<RebuildReport> rebuild(String trigger) {
+    if (!isEnabled()) {
+      return Optional.empty();
+    }
+    if (!running.compareAndSet(false, true)) {
+      log.info("text index rebuild already running, skipping the {} trigger", trigger);
+      return Optional.empty();
+    }
+    try {
+      var startedAt = Instant.now();
+      long start = System.nanoTime();
+      long entities = writer.calculate(() -> Txn.calculateWrite(ds, this::reindex));
+      var report = new RebuildReport(startedAt, trigger, entities, (System.nanoTime() - start) / 1_000_000_000d);
+      log.info("text index rebuilt in {}s, {} entities, trigger: {}", "%.2f".formatted(report.durationSeconds()),
+          entities, trigger);
+      lastReport = report;
+      return Optional.of(report);
+    } catch (Exception exc) {
+      log.error("text index rebuild failed", exc);
+      throw exc;
+    } finally {
+      running.set(false);
+    }
+  }
+
+  /**
+   * empties the index and adds the literals of every indexed predicate, the
+   * changes are committed with the transaction
+   */
+  private long reindex() {
+    try {
+      index.getIndexWriter().deleteAll();
+    } catch (IOException exc) {
+      throw new UncheckedIOException(exc);
+    }
+    var docDef = index.getDocDef();
+    var dsg = TDBConfig.storage(ds);
+    long entities = 0;
+    for (Node predicate : docDef.getPredicates(TDBConfig.TEXT_FIELD)) {
+      var quads = dsg.find(Node.ANY, Node.ANY, predicate, Node.ANY);
+      try {
+        while (quads.hasNext()) {
+          var entity = TextQueryFuncs.entityFromQuad(docDef, quads.next());
+          if (entity != null) {
+            index.addEntity(entity);
+            entities++;
+          }
+        }
+      } finally {
+        Iter.close(quads);
+      }
+    }
+    return entities;
+  }
+}
@@ -0,0 +1,224 @@
+package tech.artcoded.triplestore.tdb;
+
+import com.google.common.base.Suppliers;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.query.TxnType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Timers, summaries and counters of the sparql and tdb2 hot paths, tagged
+ * with the query type: ASK, SELECT, CONSTRUCT, DESCRIBE, UPDATE, LOAD,
+ * REPLICATION or EXPORT.
+ */
+@Component
+@Slf4j
+public class TriplestoreMetrics {
+  // TDB2 keeps one Data-NNNN directory per storage generation, compaction adds one
+  private static final Pattern STORAGE_GENERATION = Pattern.compile("Data-(\\d+)");
+
+  private final MeterRegistry registry;
+  private final Path databaseDir;
+  private final Counter spills;
+  private final Timer updateQueueLag;
+  private final Counter triplesAdded;
+  private final Counter triplesDeleted;
+  private final Timer compactions;
+  private final Counter compactionReclaimed;
+
+  /**
+   * cumulated count and time of the read queries, to compare latencies
+   * between two points in time
+   */
+  public record LatencySnapshot(long count, double totalMs) {
+    /**
+     * @return the mean latency since the earlier snapshot, null without query
+     *         in between
+     */
+    public Double meanSince(LatencySnapshot earlier) {
+      long queries = count - earlier.count;
+      return queries == 0 ? null : Math.round((totalMs - earlier.totalMs) / queries * 1000) / 1000d;
+    }
+  }
+
+  public TriplestoreMetrics(MeterRegistry registry,
+      @Value("${triplestore.database.dir}") String databaseDir) {
+    this.registry = registry;
+    this.databaseDir = Path.of(databaseDir);
+    this.spills = Counter.builder("triplestore.query.result.spills")
+        .description("results too big for memory, buffered to a temporary file")
+        .register(registry);
+    this.updateQueueLag = Timer.builder("triplestore.update.queue.lag")
+        .description("time an update waited in the sparql-update queue")
+        .publishPercentileHistogram()
+        .register(registry);
+    this.triplesAdded = Counter.builder("triplestore.update.triples")
+        .tag("change", "added")
+        .description("triples added by updates and loads")
+        .register(registry);
+    this.triplesDeleted = Counter.builder("triplestore.update.triples")
+        .tag("change", "deleted")
+        .description("triples deleted by updates and loads")
+        .register(registry);
+    this.compactions = Timer.builder("triplestore.tdb.compaction")
+        .description("duration of the tdb2 compactions")
+        .register(registry);
+    this.compactionReclaimed = Counter.builder("triplestore.tdb.compaction.reclaimed")
+        .description("disk space reclaimed by the tdb2 compactions")
+        .baseUnit("bytes")
+        .register(registry);
+
+    // walking the database directory is not free, scrapes reuse the last value for a minute
+    Supplier<long[]> storage = Suppliers.memoizeWithExpiration(this::storageStats, Duration.ofMinutes(1));
+    Gauge.builder("triplestore.tdb.disk.size", storage, s -> s.get()[0])
+        .description("size of the tdb2 database directory")
+        .baseUnit("bytes")
+        .strongReference(true)
+        .register(registry);
+    Gauge.builder("triplestore.tdb.storage.generation", storage, s -> s.get()[1])
+        .description("tdb2 storage generation, increased by each compaction")
+        .strongReference(true)
+        .register(registry);
+  }
+
+  /**
+   * @param generation called on every scrape
+   */
+  public void registerDatasetGeneration(Supplier<Number> generation) {
+    Gauge.builder("triplestore.dataset.generation", generation, g -> g.get().doubleValue())
+        .description("number of commits that changed data since startup")
+        .strongReference(true)
+        .register(registry);
+  }
+
+  public void recordParse(String endpoint, String type, long nanos) {
+    timer("triplestore.sparql.parse", "time to parse a request", endpoint, type)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * time to send the result to the client, and its size
+   */
+  public void recordResponse(String endpoint, String type, long nanos, long bytes) {
+    timer("triplestore.sparql.response", "time to write the result to the client", endpoint, type)
+        .record(nanos, TimeUnit.NANOSECONDS);
+    DistributionSummary.builder("triplestore.sparql.response.size")
+        .description("size of the results sent to the client")
+        .baseUnit("bytes")
+        .tags("endpoint", endpoint, "type", type)
+        .register(registry)
+        .record(bytes);
+  }
+
+  public void recordTransactionWait(TxnType txnType, long nanos) {
+    Timer.builder("triplestore.tdb.transaction.wait")
+        .description("time to begin a tdb2 transaction")
+        .tag("mode", txnType.name())
+        .publishPercentileHistogram()
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * time spent in the transaction. Jena evaluates lazily, so for queries
+   * this includes formatting the result.
+   */
+  public void recordExecution(String type, long nanos) {
+    Timer.builder("triplestore.query.execution")
+        .description("time to execute an operation in its transaction")
+        .tag("type", type)
+        .publishPercentileHistogram()
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param results rows for SELECT, triples for CONSTRUCT and DESCRIBE
+   */
+  public void recordResults(String type, long results) {
+    DistributionSummary.builder("triplestore.query.results")
+        .description("rows or triples returned by a query")
+        .tag("type", type)
+        .register(registry)
+        .record(results);
+  }
+
+  public void recordSpill() {
+    spills.increment();
+  }
+
+  public void recordUpdateQueueLag(long millis) {
+    updateQueueLag.record(Math.max(millis, 0), TimeUnit.MILLISECONDS);
+  }
+
+  public void recordChanges(long added, long deleted) {
+    triplesAdded.increment(added);
+    triplesDeleted.increment(deleted);
+  }
+
+  public void recordCompaction(long nanos, long reclaimedBytes) {
+    compactions.record(nanos, TimeUnit.NANOSECONDS);
+    compactionReclaimed.increment(Math.max(reclaimedBytes, 0));
+  }
+
+  public LatencySnapshot readLatency() {
+    var reads = registry.find("triplestore.query.execution").timers()
+        .stream()
+        .filter(timer -> !Set.of("UPDATE", "LOAD", "REPLICATION", "EXPORT").contains(timer.getId().getTag("type")))
+        .toList();
+    return new LatencySnapshot(reads.stream().mapToLong(Timer::count).sum(),
+        reads.stream().mapToDouble(timer -> timer.totalTime(TimeUnit.MILLISECONDS)).sum());
+  }
+
+  private Timer timer(String name, String description, String endpoint, String type) {
+    return Timer.builder(name)
+        .description(description)
+        .tags("endpoint", endpoint, "type", type)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  /**
+   * @return the size in bytes and the storage generation of the database
+   */
+  private long[] storageStats() {
+    if (!Files.isDirectory(databaseDir)) {
+      return new long[] { 0, 0 };
+    }
+    try (Stream<Path> files = Files.walk(databaseDir)) {
+      long size = 0;
+      long storageGeneration = 0;
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (Files.isRegularFile(file)) {
+          size += Files.size(file);
+        } else if (file.getParent() != null && file.getParent().equals(databaseDir)) {
+          Matcher matcher = STORAGE_GENERATION.matcher(file.getFileName().toString());
+          if (matcher.matches()) {
+            storageGeneration = Math.max(storageGeneration, Long.parseLong(matcher.group(1)));
+          }
+        }
+      }
+      return new long[] { size, storageGeneration };
+    } catch (IOException | UncheckedIOException exc) {
+      // files may disappear while compacting
+      log.debug("could not compute the database size", exc);
+      return new long[] { 0, 0 };
+    }
+  }
+}
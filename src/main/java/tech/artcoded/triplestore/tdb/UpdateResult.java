@@ -0,0 +1,15 @@
+package tech.artcoded.triplestore.tdb;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Result of a synchronous update or graph store write: the triples it
+ * changed and the dataset generation that includes it. created tells a graph
+ * store write that the graph was empty before.
+ */
+public record UpdateResult(long added, long deleted, long generation, @JsonIgnore boolean created) {
+
+  public UpdateResult(long added, long deleted, long generation) {
+    this(added, deleted, generation, false);
+  }
+}
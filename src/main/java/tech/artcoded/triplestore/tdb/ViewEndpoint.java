@@ -0,0 +1,46 @@
+package tech.artcoded.triplestore.tdb;
+
+import java.util.List;
+import java.util.Map;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/admin/views")
+public class ViewEndpoint {
+  private final MaterializedViews views;
+
+  public ViewEndpoint(MaterializedViews views) {
+    this.views = views;
+  }
+
+  @GetMapping
+  public List<MaterializedViews.ViewInfo> list() {
+    return views.list();
+  }
+
+  /**
+   * registers the view, or replaces it, once it is evaluated
+   */
+  @PutMapping("/{name}")
+  public ResponseEntity<Object> register(@PathVariable("name") String name,
+      @RequestParam("query") String query) {
+    try {
+      return ResponseEntity.ok(views.register(name, query));
+    } catch (IllegalArgumentException exc) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", exc.getMessage()));
+    }
+  }
+
+  @DeleteMapping("/{name}")
+  public ResponseEntity<Void> remove(@PathVariable("name") String name) {
+    return views.remove(name) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+  }
+}
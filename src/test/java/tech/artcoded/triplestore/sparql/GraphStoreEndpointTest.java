@@ -0,0 +1,24 @@
+package tech.artcoded.triplestore.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.jena.riot.Lang;
+import org.junit.jupiter.api.Test;
+
+class GraphStoreEndpointTest {
+
+  @Test
+  void triplesSyntaxesAreAccepted() {
+    assertThat(GraphStoreEndpoint.langOf("text/turtle; charset=utf-8")).isEqualTo(Lang.TURTLE);
+    assertThat(GraphStoreEndpoint.langOf("application/n-triples")).isEqualTo(Lang.NTRIPLES);
+    assertThat(GraphStoreEndpoint.langOf("application/rdf+xml")).isEqualTo(Lang.RDFXML);
+  }
+
+  @Test
+  void quadSyntaxesAreRefused() {
+    assertThat(GraphStoreEndpoint.langOf("application/trig")).isNull();
+    assertThat(GraphStoreEndpoint.langOf("application/n-quads")).isNull();
+    assertThat(GraphStoreEndpoint.langOf("application/json")).isNull();
+    assertThat(GraphStoreEndpoint.langOf(null)).isNull();
+  }
+}
@@ -0,0 +1,51 @@
+package tech.artcoded.triplestore.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.junit.jupiter.api.Test;
+import tech.artcoded.triplestore.tdb.QueryRejectedException;
+
+class QueryAdmissionControllerTest {
+  // one slot per triple pattern, four at most
+  private final QueryAdmissionController controller = new QueryAdmissionController(true, 4, 4, 4, 1, 500,
+      new SimpleMeterRegistry());
+  private final Query cheap = QueryFactory.create("ASK { ?s ?p ?o }");
+  private final Query heavy = QueryFactory.create("SELECT * { ?a ?b ?c . ?c ?d ?e . ?e ?f ?g . ?g ?h ?i }");
+
+  @Test
+  void clientSlotsAreKeptWhileHeld() {
+    var permit = controller.admit(heavy, "client");
+    assertThat(controller.clients()).isOne();
+    assertThatThrownBy(() -> controller.admit(cheap, "client")).isInstanceOf(ClientQuotaExceededException.class);
+    assertThat(controller.clients()).isOne();
+
+    permit.close();
+    permit.close();
+    assertThat(controller.clients()).isZero();
+    controller.admit(heavy, "client").close();
+  }
+
+  @Test
+  void heavyQueryIsNotOvertakenByCheapOnes() throws Exception {
+    var running = controller.admit(cheap, "first");
+    var waiting = CompletableFuture.supplyAsync(() -> controller.admit(heavy, "heavy"));
+    TimeUnit.MILLISECONDS.sleep(100);
+
+    // three slots are free, but they go to the heavy query once the first one is done
+    var overtaking = CompletableFuture.supplyAsync(() -> controller.admit(cheap, "cheap"));
+    TimeUnit.MILLISECONDS.sleep(100);
+    running.close();
+
+    var admitted = waiting.get(1, TimeUnit.SECONDS);
+    assertThat(overtaking).failsWithin(1, TimeUnit.SECONDS).withThrowableThat()
+        .withCauseInstanceOf(QueryRejectedException.class);
+    admitted.close();
+    controller.admit(cheap, "cheap").close();
+  }
+}
@@ -0,0 +1,33 @@
+package tech.artcoded.triplestore.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.jena.query.Query;
+import org.junit.jupiter.api.Test;
+
+class QueryParserUtilTest {
+
+  @Test
+  void cachedQueryIsClonedForEachCaller() {
+    String text = "SELECT * { GRAPH ?g { ?s ?p ?o } } # cloned";
+    var first = (Query) QueryParserUtil.parseQuery(text, false).orElseThrow().query();
+    var second = (Query) QueryParserUtil.parseQuery(text, false).orElseThrow().query();
+
+    assertThat(QueryParserUtil.PARSED_CACHE.getIfPresent(text)).isNotNull();
+    assertThat(first).isNotSameAs(second).isEqualTo(second);
+    first.setLimit(1);
+    assertThat(((Query) QueryParserUtil.parseQuery(text, false).orElseThrow().query()).hasLimit()).isFalse();
+  }
+
+  @Test
+  void updateIsTakenOutOfTheCacheByTheOneApplyingIt() {
+    String text = "INSERT DATA { GRAPH <http://example.org/g> { <http://example.org/s> <http://example.org/p> 1 } }";
+    var parsed = QueryParserUtil.parseOperation(text, false).orElseThrow();
+    assertThat(parsed.type()).isEqualTo(QueryParserUtil.QueryType.UPDATE);
+
+    assertThat(QueryParserUtil.takeUpdate(text).orElseThrow().query()).isSameAs(parsed.query());
+    assertThat(QueryParserUtil.PARSED_CACHE.getIfPresent(text)).isNull();
+    // taken again, e.g. a retry: parsed anew
+    assertThat(QueryParserUtil.takeUpdate(text).orElseThrow().query()).isNotSameAs(parsed.query());
+  }
+}
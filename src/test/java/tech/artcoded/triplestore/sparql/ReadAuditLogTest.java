@@ -0,0 +1,83 @@
+package tech.artcoded.triplestore.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Map;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.ProducerTemplate;
+import org.apache.jena.query.QueryFactory;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class ReadAuditLogTest {
+  private final ProducerTemplate producerTemplate = mock(ProducerTemplate.class);
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private ReadAuditLog auditLog(int capacity) {
+    return new ReadAuditLog(producerTemplate, true, 1.0, capacity, 500, registry);
+  }
+
+  private double entries(String outcome) {
+    return registry.get("triplestore.query.audit.entries").tag("outcome", outcome).counter().count();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void eachQueryIsPublishedAsItsOwnMessage() {
+    var auditLog = auditLog(10);
+    var query = QueryFactory.create("SELECT * { ?s ?p ?o }");
+    auditLog.record(query, "application/sparql-results+json", "10.0.0.1");
+    // changed by the caller once recorded, e.g. a limit added for paging
+    query.setLimit(10);
+    auditLog.record(QueryFactory.create("ASK { ?s ?p ?o }"), "application/sparql-results+xml", "10.0.0.2");
+
+    auditLog.flush();
+
+    var body = ArgumentCaptor.forClass(Object.class);
+    var headers = ArgumentCaptor.forClass(Map.class);
+    verify(producerTemplate, times(2)).sendBodyAndHeaders(eq(ReadAuditLog.ENDPOINT), eq(ExchangePattern.InOnly),
+        body.capture(), headers.capture());
+    assertThat(body.getAllValues().getFirst()).asString().contains("SELECT").doesNotContain("LIMIT");
+    assertThat(headers.getAllValues().getFirst())
+        .containsEntry("accept", "application/sparql-results+json")
+        .containsEntry("client", "10.0.0.1")
+        .containsKey("timestamp");
+    assertThat(body.getAllValues().get(1)).asString().contains("ASK");
+    assertThat(entries("published")).isEqualTo(2);
+  }
+
+  @Test
+  void entriesBeyondTheCapacityAreDropped() {
+    var auditLog = auditLog(1);
+    auditLog.record(QueryFactory.create("SELECT * { ?s ?p ?o }"), null, null);
+    auditLog.record(QueryFactory.create("SELECT * { ?s ?p ?o }"), null, null);
+
+    auditLog.flush();
+
+    verify(producerTemplate, times(1)).sendBodyAndHeaders(anyString(), any(ExchangePattern.class), any(), anyMap());
+    assertThat(entries("dropped")).isEqualTo(1);
+  }
+
+  @Test
+  void failedPublicationDropsTheRestOfTheBatch() {
+    var auditLog = auditLog(10);
+    doThrow(new IllegalStateException("broker down")).when(producerTemplate)
+        .sendBodyAndHeaders(anyString(), any(ExchangePattern.class), any(), anyMap());
+    auditLog.record(QueryFactory.create("SELECT * { ?s ?p ?o }"), null, null);
+    auditLog.record(QueryFactory.create("SELECT * { ?s ?p ?o }"), null, null);
+
+    auditLog.flush();
+
+    assertThat(entries("dropped")).isEqualTo(2);
+    assertThat(entries("published")).isZero();
+  }
+}
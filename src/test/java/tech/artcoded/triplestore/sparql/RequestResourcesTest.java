@@ -0,0 +1,57 @@
+package tech.artcoded.triplestore.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+class RequestResourcesTest {
+  private final MockHttpServletRequest request = new MockHttpServletRequest();
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private final AtomicInteger closed = new AtomicInteger();
+
+  @AfterEach
+  void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  private void handle(boolean async) throws Exception {
+    new RequestResources().doFilter(request, response, (req, _) -> {
+      RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+      RequestResources.closeOnCompletion(closed::incrementAndGet);
+      if (async) {
+        req.startAsync();
+      }
+    });
+  }
+
+  @Test
+  void resourcesAreClosedOnceTheRequestIsHandled() throws Exception {
+    handle(false);
+
+    assertThat(closed).hasValue(1);
+  }
+
+  @Test
+  void streamedResponseThatNeverRanIsReleasedOnCompletion() throws Exception {
+    request.setAsyncSupported(true);
+    handle(true);
+    assertThat(closed).hasValue(0);
+
+    // e.g. the async request timed out before the body was scheduled
+    request.getAsyncContext().complete();
+    assertThat(closed).hasValue(1);
+  }
+
+  @Test
+  void outsideOfARequestTheResourceIsLeftToTheCaller() {
+    RequestResources.closeOnCompletion(closed::incrementAndGet);
+
+    assertThat(closed).hasValue(0);
+  }
+}
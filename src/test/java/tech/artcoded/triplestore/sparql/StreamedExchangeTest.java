@@ -0,0 +1,38 @@
+package tech.artcoded.triplestore.sparql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ServerConnection;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class StreamedExchangeTest {
+
+  @Test
+  void startedResponseIsAbortedByClosingTheConnection() throws IOException {
+    var exchange = mock(HttpServerExchange.class);
+    var connection = mock(ServerConnection.class);
+    when(exchange.getConnection()).thenReturn(connection);
+    when(exchange.isResponseStarted()).thenReturn(true);
+
+    assertThat(new StreamedExchange(exchange).abortIfStarted()).isTrue();
+    verify(connection).close();
+  }
+
+  @Test
+  void responseNotStartedIsLeftToTheErrorHandling() throws IOException {
+    var exchange = mock(HttpServerExchange.class);
+    var connection = mock(ServerConnection.class);
+    when(exchange.getConnection()).thenReturn(connection);
+
+    assertThat(new StreamedExchange(exchange).abortIfStarted()).isFalse();
+    verify(connection, never()).close();
+    // outside of undertow, e.g. in tests
+    assertThat(StreamedExchange.current().abortIfStarted()).isFalse();
+  }
+}
@@ -0,0 +1,190 @@
+package tech.artcoded.triplestore.sparql.route;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdfpatch.changes.PatchSummary;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import tech.artcoded.triplestore.tdb.MigrationLedger;
+import tech.artcoded.triplestore.tdb.ReplicaFollower;
+import tech.artcoded.triplestore.tdb.TDBService;
+
+class MigrationRouteBuilderTest {
+  private static final String DEFAULT_GRAPH = "urn:graph:default";
+
+  @TempDir
+  Path dir;
+
+  // local name of the subject of the loaded files and text of the updates, in the order they were written
+  private final List<String> applied = new CopyOnWriteArrayList<>();
+  private final TDBService tdbService = mock(TDBService.class);
+  private MigrationLedger ledger;
+  private MigrationRouteBuilder migrations;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setUp() throws IOException {
+    when(tdbService.batchLoadData(anyString(), any(Consumer.class))).thenAnswer(invocation -> {
+      var graph = GraphFactory.createDefaultGraph();
+      invocation.<Consumer<StreamRDF>>getArgument(1).accept(StreamRDFLib.graph(graph));
+      return record(localName(graph.find().next().getSubject().getURI()), graph.size());
+    });
+    when(tdbService.batchLoadData(anyString(), any(Model.class))).thenAnswer(invocation -> {
+      var model = invocation.<Model>getArgument(1);
+      return record(localName(model.listSubjects().next().getURI()), model.size());
+    });
+    when(tdbService.batchDeleteData(anyString(), any(Consumer.class))).thenAnswer(invocation -> {
+      var graph = GraphFactory.createDefaultGraph();
+      invocation.<Consumer<StreamRDF>>getArgument(1).accept(StreamRDFLib.graph(graph));
+      return record("-" + localName(graph.find().next().getSubject().getURI()), graph.size());
+    });
+    when(tdbService.executeUpdateQuery(anyString())).thenAnswer(invocation -> {
+      record(invocation.<String>getArgument(0), 1);
+      return new PatchSummary();
+    });
+    ledger = new MigrationLedger(dir.resolve("ledger.jsonl").toString(),
+        JsonMapper.builder().findAndAddModules().build(), DatasetFactory.createTxnMem());
+    migrations = newMigrations(true);
+  }
+
+  private static String localName(String uri) {
+    return uri.substring(uri.lastIndexOf('/') + 1);
+  }
+
+  private long record(String what, long count) {
+    if (what.contains("fail")) {
+      throw new IllegalStateException("cannot load " + what);
+    }
+    applied.add(what);
+    return count;
+  }
+
+  private MigrationRouteBuilder newMigrations(boolean streaming) {
+    var route = new MigrationRouteBuilder(tdbService, mock(ReplicaFollower.class), ledger);
+    ReflectionTestUtils.setField(route, "migrationDir", dir.resolve("migrations").toString());
+    ReflectionTestUtils.setField(route, "defaultGraph", DEFAULT_GRAPH);
+    ReflectionTestUtils.setField(route, "streaming", streaming);
+    ReflectionTestUtils.setField(route, "settleMs", 0L);
+    return route;
+  }
+
+  private void data(String name) throws IOException {
+    data(name, name.replaceFirst("\\..*", ""));
+  }
+
+  private void data(String name, String subject) throws IOException {
+    Files.createDirectories(dir.resolve("migrations"));
+    Files.writeString(dir.resolve("migrations").resolve(name),
+        "<http://example.org/%s> <http://example.org/p> \"o\" .\n".formatted(subject));
+  }
+
+  private void update(String name) throws IOException {
+    Files.createDirectories(dir.resolve("migrations"));
+    Files.writeString(dir.resolve("migrations").resolve(name), name);
+  }
+
+  @Test
+  void filesAreAppliedInNameOrderAndMoved() throws IOException {
+    data("003.ttl");
+    update("002.sparql");
+    data("001.nt");
+    Files.writeString(dir.resolve("migrations/001.graph"), "urn:graph:named\n");
+
+    assertThat(migrations.migrate()).hasSize(3);
+    assertThat(applied).containsExactly("001", "002.sparql", "003");
+    try (var left = Files.list(dir.resolve("migrations"))) {
+      assertThat(left).extracting(Path::getFileName).extracting(Path::toString).containsExactly(".camel");
+    }
+    assertThat(dir.resolve("migrations/.camel")).isDirectoryContaining("glob:**/001.graph");
+  }
+
+  @Test
+  void withoutStreamingFilesAreLoadedOneAtATimeInNameOrder() throws IOException {
+    migrations = newMigrations(false);
+    data("003.nt");
+    data("001.nt");
+    data("002.nt");
+
+    migrations.migrate();
+    assertThat(applied).containsExactly("001", "002", "003");
+  }
+
+  @Test
+  void appliedFilesDroppedAgainAreSkipped() throws IOException {
+    data("001.nt");
+    update("002.sparql");
+    migrations.migrate();
+    data("001.nt");
+    update("002.sparql");
+    data("003.nt");
+
+    assertThat(migrations.migrate()).extracting(MigrationRouteBuilder.Migration::file).containsExactly("003.nt");
+    assertThat(dir.resolve("migrations/001.nt")).doesNotExist();
+    assertThat(applied).containsExactly("001", "002.sparql", "003");
+  }
+
+  @Test
+  void changedFileReplacesItsPreviousVersion() throws IOException {
+    data("001.nt", "old");
+    migrations.migrate();
+    data("001.nt", "new");
+
+    assertThat(migrations.migrate()).extracting(MigrationRouteBuilder.Migration::count).containsExactly(2L);
+    assertThat(applied).containsExactly("old", "-old", "new");
+    assertThat(Files.readString(dir.resolve("migrations/.camel/001.nt"))).contains("new");
+  }
+
+  @Test
+  void failedFileStopsTheMigrationsUntilItChanges() throws IOException {
+    data("001.nt");
+    data("002-fail.nt");
+    update("003.sparql");
+
+    assertThat(migrations.migrate()).extracting(MigrationRouteBuilder.Migration::file).containsExactly("001.nt");
+    assertThat(migrations.migrate()).isEmpty();
+    assertThat(dir.resolve("migrations/002-fail.nt")).exists();
+
+    data("002-fail.nt", "002-fixed");
+    assertThat(migrations.migrate()).extracting(MigrationRouteBuilder.Migration::file)
+        .containsExactly("002-fail.nt", "003.sparql");
+    assertThat(applied).containsExactly("001", "002-fixed", "003.sparql");
+  }
+
+  @Test
+  void namedGraphsAreRefused() throws IOException {
+    Files.createDirectories(dir.resolve("migrations"));
+    Files.writeString(dir.resolve("migrations/001.trig"),
+        "<urn:graph:other> { <http://example.org/001> <http://example.org/p> \"o\" }\n");
+    data("002.nt");
+
+    assertThat(migrations.migrate()).isEmpty();
+    assertThat(applied).isEmpty();
+  }
+
+  @Test
+  void scanStopsAtAFileStillBeingWritten() throws IOException {
+    ReflectionTestUtils.setField(migrations, "settleMs", 60_000L);
+    data("001.nt");
+
+    assertThat(migrations.migrate()).isEmpty();
+    assertThat(applied).isEmpty();
+  }
+}
@@ -0,0 +1,93 @@
+package tech.artcoded.triplestore.sparql.route;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import jakarta.jms.Connection;
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.Destination;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.MessageConsumer;
+import jakarta.jms.Queue;
+import jakarta.jms.Session;
+import java.util.List;
+import org.apache.camel.ProducerTemplate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import tech.artcoded.triplestore.tdb.TDBService;
+import tech.artcoded.triplestore.tdb.TriplestoreMetrics;
+
+class UpdateRouteBuilderTest {
+  private final ProducerTemplate producerTemplate = mock(ProducerTemplate.class);
+  private final Session session = mock(Session.class);
+  private final MessageConsumer consumer = mock(MessageConsumer.class);
+  private UpdateRouteBuilder routes;
+
+  @BeforeEach
+  void setUp() throws JMSException {
+    var connectionFactory = mock(ConnectionFactory.class);
+    var connection = mock(Connection.class);
+    when(connectionFactory.createConnection()).thenReturn(connection);
+    when(connection.createSession(eq(true), anyInt())).thenReturn(session);
+    when(session.createConsumer(any(Destination.class))).thenReturn(consumer);
+    when(session.createQueue(anyString())).thenReturn(mock(Queue.class));
+    var first = message("INSERT DATA { <http://example.org/s> <http://example.org/p> 1 }");
+    var second = message("INSERT DATA { <http://example.org/s> <http://example.org/p> 2 }");
+    when(consumer.receive(anyLong())).thenReturn(first, second, null);
+
+    routes = new UpdateRouteBuilder(mock(TDBService.class), mock(TriplestoreMetrics.class), producerTemplate,
+        connectionFactory);
+    ReflectionTestUtils.setField(routes, "groupCommitMaxMessages", 100);
+    ReflectionTestUtils.setField(routes, "groupCommitMaxWaitMs", 50L);
+  }
+
+  private static Message message(String update) throws JMSException {
+    var message = mock(Message.class);
+    when(message.getBody(String.class)).thenReturn(update);
+    return message;
+  }
+
+  @Test
+  void groupIsAcknowledgedOnceApplied() throws JMSException {
+    routes.receiveGroup();
+
+    var order = inOrder(producerTemplate, session);
+    order.verify(producerTemplate).sendBody("direct:sparql-update-group-commit", List.of(
+        "INSERT DATA { <http://example.org/s> <http://example.org/p> 1 }",
+        "INSERT DATA { <http://example.org/s> <http://example.org/p> 2 }"));
+    order.verify(session).commit();
+    verify(session, never()).rollback();
+  }
+
+  @Test
+  void groupThatCouldNotBeAppliedStaysInTheQueue() throws JMSException {
+    doThrow(new IllegalStateException("crash")).when(producerTemplate).sendBody(anyString(), any());
+
+    assertThatThrownBy(routes::receiveGroup).hasMessageContaining("crash");
+    verify(session).rollback();
+    verify(session, never()).commit();
+  }
+
+  @Test
+  void groupInterruptedWhileReceivedStaysInTheQueue() throws JMSException {
+    var first = message("INSERT DATA { <http://example.org/s> <http://example.org/p> 1 }");
+    when(consumer.receive(anyLong())).thenReturn(first).thenThrow(new JMSException("connection lost"));
+
+    assertThatThrownBy(routes::receiveGroup).hasRootCauseMessage("connection lost");
+    verify(producerTemplate, never()).sendBody(anyString(), any());
+    verify(session).rollback();
+    verify(session, never()).commit();
+  }
+}
@@ -0,0 +1,51 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.shared.PrefixMapping;
+import org.junit.jupiter.api.Test;
+
+class GraphResultWriterTest {
+  private static final PrefixMapping PREFIXES = PrefixMapping.Factory.create().setNsPrefix("ex", "http://example.org/");
+
+  private static Triple triple(String o) {
+    return Triple.create(NodeFactory.createURI("http://example.org/s"), NodeFactory.createURI("http://example.org/p"),
+        NodeFactory.createURI("http://example.org/" + o));
+  }
+
+  @Test
+  void prefixesOfTheQueryAreWritten() {
+    for (Lang lang : new Lang[] { Lang.TURTLE, Lang.RDFXML }) {
+      var out = new ByteArrayOutputStream();
+      GraphResultWriter.write(List.of(triple("a")).iterator(), PREFIXES, out, lang, 0, -1);
+      assertThat(out.toString(StandardCharsets.UTF_8)).as(lang.getName()).contains("ex:");
+    }
+  }
+
+  @Test
+  void duplicatesAreOnlyDroppedWithinTheWindow() {
+    var triples = List.of(triple("a"), triple("a"), triple("b"), triple("c"), triple("a"));
+
+    assertThat(GraphResultWriter.write(triples.iterator(), PREFIXES, new ByteArrayOutputStream(), Lang.NTRIPLES, 2,
+        -1)).isEqualTo(4);
+    assertThat(GraphResultWriter.write(triples.iterator(), PREFIXES, new ByteArrayOutputStream(), Lang.NTRIPLES, 10,
+        -1)).isEqualTo(3);
+  }
+
+  @Test
+  void resultLargerThanTheLimitFailsInsteadOfBeingTruncated() {
+    var triples = List.of(triple("a"), triple("b"), triple("c"));
+
+    assertThatThrownBy(() -> GraphResultWriter.write(triples.iterator(), PREFIXES, new ByteArrayOutputStream(),
+        Lang.NTRIPLES, 0, 2)).isInstanceOf(ResultTooLargeException.class);
+    assertThat(GraphResultWriter.write(triples.iterator(), PREFIXES, new ByteArrayOutputStream(), Lang.NTRIPLES, 0,
+        3)).isEqualTo(3);
+  }
+}
@@ -0,0 +1,87 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MaterializedViewsTest {
+  private static final String QUERY = "SELECT ?type (COUNT(*) AS ?count) { ?s a ?type } GROUP BY ?type";
+
+  @TempDir
+  Path dir;
+  // runs once the snapshot of the view is taken, before it is evaluated
+  private final AtomicReference<Runnable> afterSnapshot = new AtomicReference<>();
+  private final StoreWriter writer = new StoreWriter() {
+    @Override
+    public void execute(Runnable write) {
+      super.execute(write);
+      var concurrent = afterSnapshot.getAndSet(null);
+      if (concurrent != null) {
+        concurrent.run();
+      }
+    }
+  };
+  private MaterializedViews views;
+  private TDBService tdbService;
+
+  @BeforeEach
+  void setUp() {
+    var ds = DatasetFactory.createTxnMem();
+    views = new MaterializedViews(ds, writer, dir.toString(), false, 5, new SimpleMeterRegistry());
+    tdbService = new TDBService(ds, mock(QueryResultCache.class), mock(QueryExecutionEngine.class),
+        mock(TriplestoreMetrics.class), mock(PatchLog.class), views, writer);
+  }
+
+  private long count(String type) {
+    return views.rows("types").rows().stream()
+        .filter(row -> row.get(Var.alloc("type")).getURI().equals(type))
+        .mapToLong(row -> ((Number) row.get(Var.alloc("count")).getLiteralValue())
+            .longValue())
+        .sum();
+  }
+
+  @Test
+  void writesCommittedDuringTheEvaluationAreCountedOnce() {
+    tdbService.executeUpdateQuery("INSERT DATA { <urn:ex:a> a <urn:ex:T> . <urn:ex:b> a <urn:ex:T> }");
+    afterSnapshot.set(() -> {
+      assertThat(views.list()).isEmpty();
+      // would wait for the writer if the evaluation held it
+      var concurrent = Thread.ofPlatform().start(() -> tdbService.executeUpdateQuery(
+          "DELETE DATA { <urn:ex:a> a <urn:ex:T> }; INSERT DATA { <urn:ex:c> a <urn:ex:T> . <urn:ex:d> a <urn:ex:T> }"));
+      try {
+        concurrent.join(5000);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+      assertThat(concurrent.isAlive()).isFalse();
+    });
+
+    views.register("types", QUERY);
+
+    assertThat(count("urn:ex:T")).isEqualTo(3);
+    tdbService.executeUpdateQuery("INSERT DATA { <urn:ex:e> a <urn:ex:T> }");
+    assertThat(count("urn:ex:T")).isEqualTo(4);
+  }
+
+  @Test
+  void viewIsAnsweredOnlyOnceEvaluated() {
+    tdbService.executeUpdateQuery("INSERT DATA { <urn:ex:a> a <urn:ex:T> }");
+    views.register("types", QUERY);
+    afterSnapshot.set(() -> assertThat(count("urn:ex:T")).isEqualTo(1));
+
+    // replaced: the previous one answers meanwhile
+    views.register("types", QUERY);
+
+    assertThat(afterSnapshot.get()).isNull();
+    assertThat(views.list()).hasSize(1);
+    assertThat(count("urn:ex:T")).isEqualTo(1);
+  }
+}
@@ -0,0 +1,102 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MigrationLedgerTest {
+  private static final String GRAPH = "urn:graph";
+
+  private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+  private final Dataset ds = DatasetFactory.createTxnMem();
+
+  @TempDir
+  Path dir;
+
+  private Path ledgerFile;
+  private Path file;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    ledgerFile = dir.resolve("ledger.jsonl");
+    file = Files.writeString(dir.resolve("001.nt"), "<urn:a> <urn:p> <urn:b> .\n");
+    // a ledger next to an empty store is stale
+    Txn.executeWrite(ds, () -> ds.asDatasetGraph().add(SSE.parseQuad("(<urn:g> <urn:a> <urn:p> <urn:b>)")));
+  }
+
+  private MigrationLedger newLedger() throws IOException {
+    return new MigrationLedger(ledgerFile.toString(), objectMapper, ds);
+  }
+
+  @Test
+  void recordedFileIsApplied() throws IOException {
+    var ledger = newLedger();
+    assertThat(ledger.isApplied(file, GRAPH)).isFalse();
+    ledger.record(file, GRAPH, 1, 1_000_000);
+
+    assertThat(ledger.isApplied(file, GRAPH)).isTrue();
+    assertThat(ledger.isApplied(file, "urn:other")).isFalse();
+    assertThat(newLedger().isApplied(file, GRAPH)).isTrue();
+  }
+
+  @Test
+  void touchedFileIsAppliedAndItsNewModificationTimeRecorded() throws IOException {
+    var ledger = newLedger();
+    ledger.record(file, GRAPH, 1, 0);
+    var touched = FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 60_000);
+    Files.setLastModifiedTime(file, touched);
+
+    assertThat(ledger.isApplied(file, GRAPH)).isTrue();
+    assertThat(ledger.get("001.nt").orElseThrow().lastModified()).isEqualTo(touched.toMillis());
+    assertThat(ledger.get("001.nt").orElseThrow().triples()).isEqualTo(1);
+    assertThat(Files.readAllLines(ledgerFile)).hasSize(2);
+    // the next check is a fast path, nothing more is recorded
+    assertThat(ledger.isApplied(file, GRAPH)).isTrue();
+    assertThat(Files.readAllLines(ledgerFile)).hasSize(2);
+    assertThat(newLedger().get("001.nt").orElseThrow().lastModified()).isEqualTo(touched.toMillis());
+  }
+
+  @Test
+  void changedFileIsNotApplied() throws IOException {
+    var ledger = newLedger();
+    ledger.record(file, GRAPH, 1, 0);
+    Files.writeString(file, "<urn:c> <urn:p> <urn:d> .\n", StandardOpenOption.APPEND);
+
+    assertThat(ledger.isApplied(file, GRAPH)).isFalse();
+  }
+
+  @Test
+  void malformedLinesAreSkipped() throws IOException {
+    newLedger().record(file, GRAPH, 1, 0);
+    Files.writeString(ledgerFile, "{\"file\":\"002.nt\",\"ha", StandardOpenOption.APPEND);
+
+    var ledger = newLedger();
+    assertThat(ledger.isApplied(file, GRAPH)).isTrue();
+    assertThat(ledger.get("002.nt")).isEmpty();
+  }
+
+  @Test
+  void ledgerOfAnEmptyStoreIsSetAside() throws IOException {
+    newLedger().record(file, GRAPH, 1, 0);
+
+    var ledger = new MigrationLedger(ledgerFile.toString(), objectMapper, DatasetFactory.createTxnMem());
+    assertThat(ledger.isApplied(file, GRAPH)).isFalse();
+    assertThat(ledgerFile).doesNotExist();
+    try (var files = Files.list(dir)) {
+      assertThat(files.map(f -> f.getFileName().toString())).anyMatch(name -> name.startsWith("ledger.jsonl.stale-"));
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PatchLogTest {
+  @TempDir
+  Path dir;
+
+  private static byte[] add(String s) {
+    return "A <urn:%s> <urn:p> <urn:o> <urn:g> .\n".formatted(s).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private PatchLog newLog(long maxSegmentBytes) {
+    return newLog(maxSegmentBytes, Long.MAX_VALUE);
+  }
+
+  private PatchLog newLog(long maxSegmentBytes, long retainedPatches) {
+    return new PatchLog(true, dir.toString(), maxSegmentBytes, retainedPatches, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void versionsFollowEachOtherAcrossSegmentsAndRestarts() throws IOException {
+    var log = newLog(64);
+    assertThat(log.append(add("a"))).isEqualTo(1);
+    assertThat(log.append(add("b"))).isEqualTo(2);
+    assertThat(log.append(add("c"))).isEqualTo(3);
+    try (var segments = Files.list(dir)) {
+      assertThat(segments.count()).isGreaterThan(1);
+    }
+    assertThat(newLog(64).version()).isEqualTo(3);
+  }
+
+  @Test
+  void readCopiesThePatchesAfterAVersion() throws IOException {
+    var log = newLog(1 << 20);
+    for (String s : new String[] { "a", "b", "c", "d" }) {
+      log.append(add(s));
+    }
+    var out = new ByteArrayOutputStream();
+    assertThat(log.read(1, 2, out)).isEqualTo(2);
+
+    var headers = ReplicaFollower.headersOf(out.toByteArray());
+    assertThat(headers.first).isEqualTo(2);
+    assertThat(headers.last).isEqualTo(3);
+    assertThat(out.toString(StandardCharsets.UTF_8)).contains("<urn:b>", "<urn:c>").doesNotContain("<urn:a>", "<urn:d>");
+  }
+
+  @Test
+  void readerSeesTheAppendsOfTheWriter() throws IOException {
+    var log = newLog(1 << 20);
+    var reader = PatchLog.reader(dir);
+    log.append(add("a"));
+    reader.refresh();
+    assertThat(reader.version()).isEqualTo(1);
+    assertThatThrownBy(() -> reader.append(add("b"))).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void batchWithoutVersionHeaderHasNoVersion() {
+    var headers = ReplicaFollower.headersOf("TX .\nA <urn:a> <urn:p> <urn:o> .\nTC .\n"
+        .getBytes(StandardCharsets.UTF_8));
+    assertThat(headers.first).isEqualTo(-1);
+    assertThat(headers.last).isEqualTo(-1);
+  }
+
+  @Test
+  void patchClosedBeforeTheCommitIsRolledBack() throws IOException {
+    var log = newLog(1 << 20);
+    try (var patch = log.begin()) {
+      patch.output().write(add("aborted"));
+      patch.prepare();
+    }
+    assertThat(log.append(add("a"))).isEqualTo(1);
+
+    var out = new ByteArrayOutputStream();
+    PatchLog.reader(dir).read(0, 10, out);
+    assertThat(out.toString(StandardCharsets.UTF_8)).contains("<urn:a>").doesNotContain("aborted");
+  }
+
+  @Test
+  void stopBeforeThePrepareLeavesTheLogUsable() throws IOException {
+    var log = newLog(1 << 20);
+    log.append(add("a"));
+    // the process stops while the transaction is written
+    log.begin().output().write(add("b"));
+
+    var restarted = newLog(1 << 20);
+    assertThat(restarted.isBroken()).isFalse();
+    assertThat(restarted.version()).isEqualTo(1);
+    assertThat(restarted.append(add("c"))).isEqualTo(2);
+  }
+
+  @Test
+  void stopBetweenTheCommitAndTheAppendBreaksTheLog() throws IOException {
+    var log = newLog(1 << 20);
+    log.append(add("a"));
+    var patch = log.begin();
+    patch.output().write(add("b"));
+    patch.prepare();
+    // the store commits, then the process stops before patch.commit()
+
+    var restarted = newLog(1 << 20);
+    assertThat(restarted.isBroken()).isTrue();
+    assertThat(restarted.begin()).isNull();
+    assertThatThrownBy(() -> restarted.read(0, 10, new ByteArrayOutputStream()))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("broken");
+    // followers reading the directory see it too
+    var reader = PatchLog.reader(dir);
+    assertThatThrownBy(() -> reader.checkAvailable(0)).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void failedAppendAfterTheCommitBreaksTheLog() throws IOException {
+    var log = newLog(1 << 20);
+    var patch = log.begin();
+    patch.output().write(add("a"));
+    patch.prepare();
+    log.close();
+
+    patch.commit();
+    assertThat(log.isBroken()).isTrue();
+    assertThat(Files.exists(dir.resolve("BROKEN"))).isTrue();
+  }
+
+  @Test
+  void onlyTheRetainedPatchesAreKept() throws IOException {
+    var log = newLog(64, 2);
+    for (String s : new String[] { "a", "b", "c", "d", "e" }) {
+      log.append(add(s));
+    }
+
+    assertThatThrownBy(() -> log.checkAvailable(0)).isInstanceOf(IllegalStateException.class);
+    var out = new ByteArrayOutputStream();
+    assertThat(log.read(3, 10, out)).isEqualTo(2);
+    assertThat(out.toString(StandardCharsets.UTF_8)).contains("<urn:d>", "<urn:e>");
+    try (var segments = Files.list(dir)) {
+      assertThat(segments.map(Path::getFileName).map(Path::toString))
+          .doesNotContain("patch-00000000000000000001.rdfp")
+          .contains("patch-00000000000000000005.rdfp");
+    }
+    assertThat(newLog(64, 2).version()).isEqualTo(5);
+  }
+}
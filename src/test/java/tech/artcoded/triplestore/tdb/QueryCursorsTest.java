@@ -0,0 +1,108 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.NoSuchElementException;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class QueryCursorsTest {
+  private static final Query QUERY = QueryFactory.create("SELECT ?s { GRAPH ?g { ?s ?p ?o } } ORDER BY ?s");
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final Dataset ds = DatasetFactory.createTxnMem();
+  private QueryCursors cursors;
+
+  @BeforeEach
+  void setUp() {
+    Txn.executeWrite(ds, () -> {
+      for (int i = 0; i < 5; i++) {
+        ds.asDatasetGraph().add(Quad.create(NodeFactory.createURI("urn:ex:g"), NodeFactory.createURI("urn:ex:s" + i),
+            NodeFactory.createURI("urn:ex:p"), NodeFactory.createLiteralString("o")));
+      }
+    });
+  }
+
+  @AfterEach
+  void tearDown() {
+    cursors.shutdown();
+  }
+
+  private QueryCursors cursors(long idleTimeoutMs) {
+    cursors = new QueryCursors(ds, 30, idleTimeoutMs, 2, 100, registry);
+    return cursors;
+  }
+
+  private double open() {
+    return registry.get("triplestore.query.cursors.open").gauge().value();
+  }
+
+  @Test
+  void pagesContinueTheSameResultsUntilTheyAreExhausted() {
+    var cursors = cursors(60_000);
+    var first = cursors.open(QUERY, "client", 2);
+    var second = cursors.next(first.cursor(), "client", 2);
+    var last = cursors.next(second.cursor(), "client", 2);
+
+    assertThat(first.rows()).hasSize(2);
+    assertThat(second.rows()).hasSize(2);
+    assertThat(last.rows()).hasSize(1);
+    assertThat(last.cursor()).isNull();
+    assertThat(open()).isZero();
+  }
+
+  @Test
+  void cursorOfAnotherClientIsUnknown() {
+    var cursors = cursors(60_000);
+    var first = cursors.open(QUERY, "client", 2);
+
+    assertThatThrownBy(() -> cursors.next(first.cursor(), "other", 2)).isInstanceOf(NoSuchElementException.class);
+    assertThat(cursors.query(first.cursor(), "client")).isEqualTo(QUERY);
+  }
+
+  @Test
+  void idleCursorsExpire() throws InterruptedException {
+    var cursors = cursors(1);
+    var first = cursors.open(QUERY, "client", 2);
+    Thread.sleep(5);
+
+    cursors.expire();
+
+    assertThat(open()).isZero();
+    assertThatThrownBy(() -> cursors.next(first.cursor(), "client", 2)).isInstanceOf(NoSuchElementException.class);
+    assertThat(registry.get("triplestore.query.cursors").tag("outcome", "expired").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void suspendedCursorsAreClosedAndNoneIsOpenedUntilResumed() {
+    var cursors = cursors(60_000);
+    var first = cursors.open(QUERY, "client", 2);
+
+    cursors.suspend();
+
+    assertThat(open()).isZero();
+    assertThatThrownBy(() -> cursors.next(first.cursor(), "client", 2)).isInstanceOf(NoSuchElementException.class);
+    assertThatThrownBy(() -> cursors.open(QUERY, "client", 2)).isInstanceOf(QueryRejectedException.class);
+    cursors.resume();
+    assertThat(cursors.open(QUERY, "client", 2).rows()).hasSize(2);
+  }
+
+  @Test
+  void openCursorsAreBounded() {
+    var cursors = cursors(60_000);
+    cursors.open(QUERY, "client", 1);
+    cursors.open(QUERY, "client", 1);
+
+    assertThatThrownBy(() -> cursors.open(QUERY, "client", 1)).isInstanceOf(QueryRejectedException.class);
+  }
+}
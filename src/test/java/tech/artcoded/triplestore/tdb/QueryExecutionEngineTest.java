@@ -0,0 +1,91 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class QueryExecutionEngineTest {
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  // one query runs, one waits
+  private final QueryExecutionEngine engine = new QueryExecutionEngine(QueryExecutionEngine.Type.PLATFORM, 1, 1,
+      registry);
+
+  @AfterEach
+  void tearDown() {
+    engine.shutdown();
+  }
+
+  private double gauge(String name) {
+    return registry.get(name).gauge().value();
+  }
+
+  @Test
+  void streamedQueriesShareTheQueueWithExecutedOnes() {
+    var first = engine.admit();
+    var second = engine.admit();
+    assertThat(gauge("triplestore.query.queued")).isEqualTo(2);
+    assertThatThrownBy(engine::admit).isInstanceOf(QueryRejectedException.class);
+    assertThatThrownBy(() -> engine.execute(() -> 1, 1, TimeUnit.SECONDS, () -> {
+    })).isInstanceOf(QueryRejectedException.class);
+    assertThat(registry.get("triplestore.query.rejected").counter().count()).isEqualTo(2);
+
+    first.close();
+    assertThat(second.run(() -> 42, 1, TimeUnit.SECONDS)).isEqualTo(42);
+    assertThat(gauge("triplestore.query.queued")).isZero();
+    assertThat(engine.execute(() -> 1, 1, TimeUnit.SECONDS, () -> {
+    })).isEqualTo(1);
+  }
+
+  @Test
+  void streamedQueryWaitsForARunningSlot() throws InterruptedException {
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var running = engine.admit();
+    var runner = Thread.ofPlatform().start(() -> running.run(() -> {
+      started.countDown();
+      try {
+        return release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }, 1, TimeUnit.SECONDS));
+    started.await();
+    assertThat(gauge("triplestore.query.active")).isEqualTo(1);
+
+    try (var waiting = engine.admit()) {
+      assertThatThrownBy(() -> waiting.run(() -> 1, 50, TimeUnit.MILLISECONDS))
+          .hasMessageContaining("waiting for a slot");
+    }
+    assertThat(registry.get("triplestore.query.aborted").counter().count()).isEqualTo(1);
+    release.countDown();
+    runner.join();
+
+    try (var admission = engine.admit()) {
+      assertThat(admission.run(() -> 2, 1, TimeUnit.SECONDS)).isEqualTo(2);
+    }
+    assertThat(gauge("triplestore.query.active")).isZero();
+    assertThat(gauge("triplestore.query.queued")).isZero();
+  }
+
+  @Test
+  void admissionGivenUpAfterItRanIsNotReleasedTwice() {
+    var admission = engine.admit();
+    assertThat(admission.run(() -> 1, 1, TimeUnit.SECONDS)).isEqualTo(1);
+    admission.close();
+    var given = engine.admit();
+    given.close();
+    given.close();
+    assertThatThrownBy(() -> given.run(() -> 1, 1, TimeUnit.SECONDS)).isInstanceOf(IllegalStateException.class);
+
+    // one running and one queued slot: a double release would admit a third query
+    try (var _ = engine.admit(); var _ = engine.admit()) {
+      assertThatThrownBy(engine::admit).isInstanceOf(QueryRejectedException.class);
+    }
+    assertThat(gauge("triplestore.query.queued")).isZero();
+  }
+}
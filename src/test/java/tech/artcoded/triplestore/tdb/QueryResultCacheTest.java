@@ -0,0 +1,59 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class QueryResultCacheTest {
+  private final QueryResultCache cache = new QueryResultCache(true, 1 << 20, 1 << 10, new SimpleMeterRegistry());
+
+  private String key(String query, Lang lang) {
+    return cache.key(QueryFactory.create(query), lang).orElse(null);
+  }
+
+  @Test
+  void sameAlgebraSharesTheKey() {
+    assertThat(key("SELECT * { ?s ?p ?o }", ResultSetLang.RS_JSON))
+        .isEqualTo(key("SELECT *\nWHERE {\n  ?s ?p ?o .\n}", ResultSetLang.RS_JSON));
+  }
+
+  @Test
+  void datasetDescriptionIsPartOfTheKey() {
+    var g1 = key("SELECT * FROM <urn:g1> { ?s ?p ?o }", ResultSetLang.RS_JSON);
+    var g2 = key("SELECT * FROM <urn:g2> { ?s ?p ?o }", ResultSetLang.RS_JSON);
+    var named = key("SELECT * FROM NAMED <urn:g1> { ?s ?p ?o }", ResultSetLang.RS_JSON);
+    var none = key("SELECT * { ?s ?p ?o }", ResultSetLang.RS_JSON);
+    assertThat(g1).isNotNull();
+    assertThat(List.of(g1, g2, named, none)).doesNotHaveDuplicates();
+  }
+
+  @Test
+  void languageIsPartOfTheKey() {
+    assertThat(key("SELECT * { ?s ?p ?o }", ResultSetLang.RS_JSON))
+        .isNotEqualTo(key("SELECT * { ?s ?p ?o }", ResultSetLang.RS_XML));
+  }
+
+  @Test
+  void constructTemplateIsPartOfTheKey() {
+    assertThat(key("CONSTRUCT { ?s <urn:a> ?o } { ?s ?p ?o }", Lang.NTRIPLES))
+        .isNotEqualTo(key("CONSTRUCT { ?s <urn:b> ?o } { ?s ?p ?o }", Lang.NTRIPLES));
+  }
+
+  @Test
+  void nonDeterministicQueriesAreNotCached() {
+    assertThat(key("SELECT (RAND() AS ?r) { }", ResultSetLang.RS_JSON)).isNull();
+    assertThat(key("SELECT (NOW() AS ?t) { }", ResultSetLang.RS_JSON)).isNull();
+    assertThat(key("SELECT * { SERVICE <http://example.org/sparql> { ?s ?p ?o } }", ResultSetLang.RS_JSON)).isNull();
+  }
+
+  @Test
+  void disabledCacheHasNoKey() {
+    var disabled = new QueryResultCache(false, 1 << 20, 1 << 10, new SimpleMeterRegistry());
+    assertThat(disabled.key(QueryFactory.create("SELECT * { ?s ?p ?o }"), ResultSetLang.RS_JSON)).isEmpty();
+  }
+}
@@ -0,0 +1,82 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReplicaFollowerTest {
+  @TempDir
+  Path dir;
+
+  private final TDBService tdbService = mock(TDBService.class);
+
+  private PatchLog leaderLog(long retainedPatches) {
+    return new PatchLog(true, dir.resolve("patch-log").toString(), 64, retainedPatches, new SimpleMeterRegistry());
+  }
+
+  private ReplicaFollower follower() throws IOException {
+    return new ReplicaFollower(tdbService, ReplicaFollower.Role.FOLLOWER, dir.resolve("patch-log").toString(), "",
+        100, dir.resolve("replication.version").toString(), new SimpleMeterRegistry());
+  }
+
+  private static byte[] add(String s) {
+    return "A <urn:ex:%s> <urn:ex:p> <urn:ex:o> <urn:ex:g> .\n".formatted(s).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void followerAppliesThePatchesOfTheLeader() throws IOException {
+    var leader = leaderLog(Long.MAX_VALUE);
+    leader.append(add("a"));
+    leader.append(add("b"));
+    var follower = follower();
+
+    follower.poll();
+
+    // one transaction for the batch
+    verify(tdbService, times(1)).applyPatches(any());
+    assertThat(follower.status()).containsEntry("version", 2L).containsEntry("stopped", null);
+  }
+
+  @Test
+  void followerStopsOnAGapInsteadOfSkippingIt() throws IOException {
+    var leader = leaderLog(2);
+    for (String s : new String[] { "a", "b", "c", "d", "e" }) {
+      leader.append(add(s));
+    }
+    var follower = follower();
+
+    follower.poll();
+    leader.append(add("f"));
+    follower.poll();
+
+    verify(tdbService, never()).applyPatches(any());
+    assertThat(follower.status()).containsEntry("version", 0L);
+    assertThat((String) follower.status().get("stopped")).contains("not in the log");
+  }
+
+  @Test
+  void followerStopsWhenTheLogIsBroken() throws IOException {
+    var leader = leaderLog(Long.MAX_VALUE);
+    leader.append(add("a"));
+    var patch = leader.begin();
+    patch.output().write(add("b"));
+    patch.prepare();
+    leaderLog(Long.MAX_VALUE);
+    var follower = follower();
+
+    follower.poll();
+
+    verify(tdbService, never()).applyPatches(any());
+    assertThat((String) follower.status().get("stopped")).contains("broken");
+  }
+}
@@ -0,0 +1,106 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.TDB2Factory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class TDBBulkLoaderTest {
+  private static final String DEFAULT_GRAPH = "urn:graph:default";
+
+  @TempDir
+  Path dir;
+
+  private MigrationLedger ledger;
+  private TDBBulkLoader loader;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    ledger = new MigrationLedger(dir.resolve("ledger.jsonl").toString(),
+        JsonMapper.builder().findAndAddModules().build(), DatasetFactory.createTxnMem());
+    loader = new TDBBulkLoader(DatasetFactory.createTxnMem(), new StoreWriter(), mock(ReplicaFollower.class),
+        mock(PatchLog.class), mock(TextIndexer.class), mock(MaterializedViews.class), ledger);
+    ReflectionTestUtils.setField(loader, "defaultGraph", DEFAULT_GRAPH);
+  }
+
+  private Path write(String name, String content) throws IOException {
+    return Files.writeString(dir.resolve(name), content);
+  }
+
+  @Test
+  void stopsBeforeTheFirstUpdateToApply() throws IOException {
+    var first = write("001.nt", "<urn:a> <urn:p> <urn:b> .\n");
+    write("002-delete.sparql", "DELETE WHERE { ?s ?p ?o }");
+    write("003.nt", "<urn:c> <urn:p> <urn:d> .\n");
+
+    assertThat(loader.dataFilesByGraph(dir)).containsExactly(Map.entry(DEFAULT_GRAPH, List.of(first)));
+  }
+
+  @Test
+  void goesPastAppliedUpdates() throws IOException {
+    var first = write("001.nt", "<urn:a> <urn:p> <urn:b> .\n");
+    var update = write("002-delete.sparql", "DELETE WHERE { ?s ?p ?o }");
+    var third = write("003.nt", "<urn:c> <urn:p> <urn:d> .\n");
+    ledger.record(update, null, 1, 0);
+
+    assertThat(loader.dataFilesByGraph(dir).get(DEFAULT_GRAPH)).containsExactly(first, third);
+  }
+
+  @Test
+  void groupsByGraphAndSkipsAppliedFiles() throws IOException {
+    var applied = write("001.nt", "<urn:a> <urn:p> <urn:b> .\n");
+    var named = write("002.nt", "<urn:c> <urn:p> <urn:d> .\n");
+    write("002.graph", "urn:graph:named\n");
+    var other = write("003.ttl", "<urn:e> <urn:p> <urn:f> .\n");
+    ledger.record(applied, DEFAULT_GRAPH, 1, 0);
+
+    var filesByGraph = loader.dataFilesByGraph(dir);
+    assertThat(filesByGraph.get("urn:graph:named")).containsExactly(named);
+    assertThat(filesByGraph.get(DEFAULT_GRAPH)).containsExactly(other);
+  }
+
+  @Test
+  void stopsBeforeAChangedFile() throws IOException {
+    var first = write("001.nt", "<urn:a> <urn:p> <urn:b> .\n");
+    var changed = write("002.nt", "<urn:c> <urn:p> <urn:d> .\n");
+    ledger.record(changed, DEFAULT_GRAPH, 1, 0);
+    write("002.nt", "<urn:c> <urn:p> <urn:e> .\n");
+    write("003.nt", "<urn:f> <urn:p> <urn:g> .\n");
+
+    assertThat(loader.dataFilesByGraph(dir)).containsExactly(Map.entry(DEFAULT_GRAPH, List.of(first)));
+  }
+
+  @Test
+  void stopsBeforeAQuadsFile() throws IOException {
+    var first = write("001.nt", "<urn:a> <urn:p> <urn:b> .\n");
+    write("002.nq", "<urn:c> <urn:p> <urn:d> <urn:g> .\n");
+
+    assertThat(loader.dataFilesByGraph(dir)).containsExactly(Map.entry(DEFAULT_GRAPH, List.of(first)));
+  }
+
+  @Test
+  void recordsTheTriplesOfEachFile() throws IOException {
+    var ds = TDB2Factory.createDataset();
+    var tdbLoader = new TDBBulkLoader(ds, new StoreWriter(), mock(ReplicaFollower.class), mock(PatchLog.class),
+        mock(TextIndexer.class), mock(MaterializedViews.class), ledger);
+    ReflectionTestUtils.setField(tdbLoader, "loaderType", TDBBulkLoader.LoaderType.PARALLEL);
+    var first = write("001.nt", "<urn:ex:a> <urn:ex:p> <urn:ex:b> .\n<urn:ex:a> <urn:ex:p> <urn:ex:c> .\n");
+    var second = write("002.ttl", "<urn:ex:d> <urn:ex:p> <urn:ex:e> .\n");
+
+    assertThat(tdbLoader.bulkLoad("urn:graph:named", List.of(first, second)))
+        .containsExactly(Map.entry(first, 2L), Map.entry(second, 1L));
+    assertThat(Txn.calculateRead(ds, () -> ds.getNamedModel("urn:graph:named").size())).isEqualTo(3);
+  }
+}
@@ -0,0 +1,98 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TDBCompactorTest {
+  @TempDir
+  Path dir;
+
+  // tasks handed to the application executor, run by the test
+  private final List<Runnable> tasks = new ArrayList<>();
+  private Dataset ds;
+  private QueryCursors cursors;
+
+  @BeforeEach
+  void setUp() {
+    ds = DatasetFactory.wrap(DatabaseMgr.connectDatasetGraph(dir.toString()));
+    cursors = new QueryCursors(ds, 30, 60_000, 8, 100, new SimpleMeterRegistry());
+    for (int i = 0; i < 3; i++) {
+      int batch = i;
+      // one commit each, so the generation keeps garbage to reclaim
+      Txn.executeWrite(ds, () -> ds.asDatasetGraph().add(Quad.create(NodeFactory.createURI("urn:ex:g"),
+          NodeFactory.createURI("urn:ex:s" + batch), NodeFactory.createURI("urn:ex:p"),
+          NodeFactory.createLiteralString("o"))));
+    }
+  }
+
+  private TDBCompactor compactor(boolean deleteOld) {
+    return new TDBCompactor(ds, new StoreWriter(), cursors, new TriplestoreMetrics(new SimpleMeterRegistry(), dir.toString()),
+        tasks::add, dir.toString(), 0, deleteOld);
+  }
+
+  private long generationSize(String name) {
+    return FileUtils.sizeOfDirectory(dir.resolve(name).toFile());
+  }
+
+  @Test
+  void asyncCompactionIsReservedBeforeItIsAccepted() {
+    var compactor = compactor(true);
+
+    assertThat(compactor.compactAsync("admin")).isTrue();
+    assertThat(compactor.isRunning()).isTrue();
+    assertThat(compactor.compactAsync("admin")).isFalse();
+    assertThat(compactor.compact("cron")).isEmpty();
+    assertThat(tasks).hasSize(1);
+
+    tasks.getFirst().run();
+    assertThat(compactor.isRunning()).isFalse();
+    assertThat(compactor.getLastReport()).hasValueSatisfying(report -> assertThat(report.trigger()).isEqualTo("admin"));
+  }
+
+  @Test
+  void keptGenerationsAreNotMeasured() {
+    var compactor = compactor(false);
+    long first = generationSize("Data-0001");
+
+    var report = compactor.compact("admin").orElseThrow();
+    assertThat(report.sizeBefore()).isEqualTo(first);
+    assertThat(report.sizeAfter()).isEqualTo(generationSize("Data-0002"));
+    assertThat(report.reclaimed()).isNotNegative();
+
+    assertThat(compactor.compact("admin").orElseThrow().sizeBefore()).isEqualTo(generationSize("Data-0002"));
+    assertThat(dir.resolve("Data-0001")).isDirectory();
+  }
+
+  @Test
+  void compactionClosesTheOpenCursorsInsteadOfWaitingForThem() {
+    var compactor = compactor(true);
+    var page = cursors.open(QueryFactory.create("SELECT * { GRAPH ?g { ?s ?p ?o } }"), "client", 1);
+    assertThat(page.cursor()).isNotNull();
+
+    // the idle cursor holds a read transaction the compaction would wait for
+    assertTimeoutPreemptively(Duration.ofSeconds(30), () -> compactor.compact("admin").orElseThrow());
+
+    assertThatThrownBy(() -> cursors.next(page.cursor(), "client", 1)).isInstanceOf(NoSuchElementException.class);
+    assertThat(cursors.open(QueryFactory.create("SELECT * { GRAPH ?g { ?s ?p ?o } }"), "client", 10).rows())
+        .hasSize(3);
+  }
+}
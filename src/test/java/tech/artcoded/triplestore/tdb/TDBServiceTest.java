@@ -0,0 +1,109 @@
+package tech.artcoded.triplestore.tdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.riot.system.StreamRDF;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class TDBServiceTest {
+  private static final String GRAPH = "http://example.org/g";
+
+  private final StoreWriter writer = new StoreWriter();
+  private TDBService tdbService;
+
+  @BeforeEach
+  void setUp() {
+    tdbService = new TDBService(DatasetFactory.createTxnMem(), mock(QueryResultCache.class),
+        mock(QueryExecutionEngine.class), mock(TriplestoreMetrics.class), mock(PatchLog.class),
+        mock(MaterializedViews.class), writer);
+    ReflectionTestUtils.setField(tdbService, "batchSize", 2);
+    ReflectionTestUtils.setField(tdbService, "maxRetry", 1);
+  }
+
+  @Test
+  void graphStoreWritesGiveUpWhileTheWriterIsHeld() throws InterruptedException {
+    var held = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    // e.g. a compaction
+    var compaction = Thread.ofPlatform().start(() -> writer.execute(() -> {
+      held.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    held.await();
+    try {
+      assertThatThrownBy(() -> tdbService.clearGraph(GRAPH, Duration.ofMillis(50)))
+          .isInstanceOf(QueryRejectedException.class);
+      assertThatThrownBy(() -> tdbService.mergeGraph(GRAPH, sink -> {
+      }, Duration.ofMillis(50))).isInstanceOf(QueryRejectedException.class);
+    } finally {
+      release.countDown();
+      compaction.join();
+    }
+  }
+
+  private static Consumer<StreamRDF> triples(String... objects) {
+    return sink -> {
+      sink.start();
+      for (String o : objects) {
+        sink.triple(Triple.create(NodeFactory.createURI("urn:ex:s"), NodeFactory.createURI("urn:ex:p"),
+            NodeFactory.createURI("urn:ex:" + o)));
+      }
+      sink.finish();
+    };
+  }
+
+  @Test
+  void graphLargerThanABatchIsReplacedInOneTransaction() {
+    var created = tdbService.replaceGraph(GRAPH, triples("a", "b", "c"), Duration.ofSeconds(1));
+    assertThat(created.created()).isTrue();
+    long generation = tdbService.getGeneration();
+
+    var replaced = tdbService.replaceGraph(GRAPH, triples("d", "e", "f", "g", "h"), Duration.ofSeconds(1));
+
+    assertThat(replaced.created()).isFalse();
+    assertThat(replaced.deleted()).isEqualTo(3);
+    assertThat(replaced.added()).isEqualTo(5);
+    // batchSize is 2: a single commit means no reader saw the graph partially loaded
+    assertThat(tdbService.getGeneration()).isEqualTo(generation + 1);
+  }
+
+  @Test
+  void mergeTellsWhetherTheGraphWasCreated() {
+    assertThat(tdbService.mergeGraph(GRAPH, triples("a"), Duration.ofSeconds(1)).created()).isTrue();
+    assertThat(tdbService.mergeGraph(GRAPH, triples("b"), Duration.ofSeconds(1)).created()).isFalse();
+  }
+
+  @Test
+  void failingGroupCommitsNothingSoItCanBeReplayedOneByOne() {
+    String first = "INSERT DATA { GRAPH <%s> { <urn:ex:s> <urn:ex:p> 1 } }".formatted(GRAPH);
+    String second = "INSERT DATA { GRAPH <%s> { <urn:ex:s> <urn:ex:p> 2 } }".formatted(GRAPH);
+    long generation = tdbService.getGeneration();
+
+    assertThatThrownBy(() -> tdbService.executeUpdateQueries(List.of(first, "INSERT DATA {", second)))
+        .isInstanceOf(RuntimeException.class);
+
+    assertThat(tdbService.containsGraph(GRAPH)).isFalse();
+    assertThat(tdbService.getGeneration()).isEqualTo(generation);
+    // the replay of the update route, the broken one goes to the failure queue
+    assertThat(tdbService.executeUpdateQuery(first).getCountAddData()).isEqualTo(1);
+    assertThatThrownBy(() -> tdbService.executeUpdateQuery("INSERT DATA {")).isInstanceOf(RuntimeException.class);
+    assertThat(tdbService.executeUpdateQuery(second).getCountAddData()).isEqualTo(1);
+    assertThat(tdbService.getGeneration()).isEqualTo(generation + 2);
+  }
+}